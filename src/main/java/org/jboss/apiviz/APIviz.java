@@ -32,8 +32,6 @@ import jdepend.framework.PackageFilter;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static org.jboss.apiviz.Constant.*;
 
@@ -44,41 +42,97 @@ import static org.jboss.apiviz.Constant.*;
  */
 public class APIviz {
 
-    private static final Pattern INSERTION_POINT_PATTERN = Pattern.compile(
-            "((<\\/PRE>)(?=\\s*(<P>|<div[^>]*block))|(?=<TABLE BORDER=\"1\")|(<div[^>]*contentContainer[^>]*>))",
-            Pattern.CASE_INSENSITIVE);
-
     public static boolean start(RootDoc root) {
         root = new APIvizRootDoc(root);
-        if (!Standard.start(root)) {
+
+        DiagramRenderer renderer;
+        try {
+            renderer = createRenderer(root, root.options());
+        } catch (IOException e) {
+            root.printError("Failed to prepare diagram generation: " + e.getMessage());
             return false;
         }
-
-        if (!Graphviz.isAvailable(root)) {
-            root.printWarning("Graphviz is not found.");
-            root.printWarning("Please install graphviz and specify -Dgraphviz.home Otherwise, you might have specified incorrect graphviz home Graphviz is not found in the system path.");
+        if (renderer == null) {
             root.printWarning("Skipping diagram generation.");
-            return true;
+            return Standard.start(root);
         }
 
         try {
-            File outputDirectory = getOutputDirectory(root.options());
+            // The doclet API is not thread-safe, so the diagram sources are
+            // generated first.  They are rendered while the standard doclet
+            // generates the pages, and inserted into the pages afterwards.
             ClassDocGraph graph = new ClassDocGraph(root);
-            if (shouldGeneratePackageDiagram(root.options())) {
-                generateOverviewSummary(root, graph, outputDirectory);
+            if (shouldGeneratePackageDiagram(root.options()) &&
+                isOverviewGenerated(root)) {
+                generateOverviewSummary(root, renderer, graph);
+            }
+            generatePackageSummaries(root, renderer, graph);
+            generateClassDiagrams(root, renderer, graph);
+            renderer.start();
+
+            if (!Standard.start(root)) {
+                return false;
             }
-            generatePackageSummaries(root, graph, outputDirectory);
-            generateClassDiagrams(root, graph, outputDirectory);
+            renderer.finish();
         } catch(Throwable t) {
             root.printError(
                     "An error occurred during diagram generation: " +
                     t.toString());
             t.printStackTrace();
             return false;
+        } finally {
+            renderer.shutdown();
         }
         return true;
     }
 
+    /**
+     * Creates the renderer configured by the specified options.
+     *
+     * @return the renderer, or {@code null} if Graphviz was requested but is
+     *         not available
+     */
+    static DiagramRenderer createRenderer(
+            DocErrorReporter reporter, String[][] options) throws IOException {
+        DiagramEngine engine = getDiagramEngine(options);
+        if (engine != DiagramEngine.BUILTIN && engine != DiagramEngine.DEFERRED &&
+            !Graphviz.isAvailable(reporter)) {
+            reporter.printWarning("Graphviz is not found.");
+            reporter.printWarning("Please install graphviz and specify -Dgraphviz.home Otherwise, you might have specified incorrect graphviz home Graphviz is not found in the system path.");
+            if (engine == DiagramEngine.GRAPHVIZ) {
+                return null;
+            }
+            reporter.printWarning("Falling back to the built-in layout engine, which generates SVG diagrams only.");
+            engine = DiagramEngine.BUILTIN;
+        }
+
+        DiagramFormat format;
+        RenderCache cache = null;
+        if (engine == DiagramEngine.BUILTIN) {
+            // Rendering is cheaper than a cache lookup.
+            format = DiagramFormat.SVG;
+        } else if (engine == DiagramEngine.DEFERRED) {
+            // Chosen when the diagrams are rendered.
+            format = null;
+        } else {
+            engine = DiagramEngine.GRAPHVIZ;
+            format = getDiagramFormat(options);
+            cache = getRenderCache(options, format);
+        }
+
+        return new DiagramRenderer(
+                reporter, getOutputDirectory(options),
+                getDiagramThreads(options),
+                getDiagramSpliceThreads(options),
+                getDiagramBatchSize(options),
+                engine, format, getDiagramTimeout(options), cache,
+                getDiagramManifest(options, engine, format),
+                getRenderClient(options, engine),
+                getPngOptimizer(options, format),
+                isDiagramWarningsFatal(options),
+                isDiagramShared(options));
+    }
+
     public static boolean validOptions(String[][] options, DocErrorReporter errorReporter) {
         for (String[] o: options) {
             if (OPTION_SOURCE_CLASS_PATH.equals(o[0])) {
@@ -98,6 +152,48 @@ public class APIviz {
                     }
                 }
             }
+            if (OPTION_DIAGRAM_THREADS.equals(o[0]) ||
+                OPTION_DIAGRAM_SPLICE_THREADS.equals(o[0]) ||
+                OPTION_DIAGRAM_BATCH_SIZE.equals(o[0]) ||
+                OPTION_DIAGRAM_CACHE_SIZE.equals(o[0]) ||
+                OPTION_DIAGRAM_TIMEOUT.equals(o[0]) ||
+                OPTION_DIAGRAM_DAEMON.equals(o[0])) {
+                if (!isPositiveInteger(o[1])) {
+                    errorReporter.printError(
+                            o[0] + " requires a positive integer: " + o[1]);
+                    return false;
+                }
+            }
+            if (OPTION_DIAGRAM_FORMAT.equals(o[0])) {
+                if (DiagramFormat.forName(o[1]) == null) {
+                    errorReporter.printError(
+                            OPTION_DIAGRAM_FORMAT +
+                            " requires either 'png' or 'svg': " + o[1]);
+                    return false;
+                }
+                if (DiagramFormat.forName(o[1]) == DiagramFormat.PNG &&
+                    getDiagramEngine(options) == DiagramEngine.BUILTIN) {
+                    errorReporter.printError(
+                            "The built-in diagram engine generates SVG only.");
+                    return false;
+                }
+            }
+            if (OPTION_DIAGRAM_LAYOUT.equals(o[0])) {
+                if (LayoutProfile.forName(o[1]) == null) {
+                    errorReporter.printError(
+                            OPTION_DIAGRAM_LAYOUT +
+                            " requires one of 'fast', 'balanced', 'best' and 'auto': " + o[1]);
+                    return false;
+                }
+            }
+            if (OPTION_DIAGRAM_ENGINE.equals(o[0])) {
+                if (DiagramEngine.forName(o[1]) == null) {
+                    errorReporter.printError(
+                            OPTION_DIAGRAM_ENGINE +
+                            " requires one of 'graphviz', 'builtin' and 'deferred': " + o[1]);
+                    return false;
+                }
+            }
         }
 
         List<String[]> newOptions = new ArrayList<String[]>();
@@ -111,6 +207,48 @@ public class APIviz {
             if (OPTION_NO_PACKAGE_DIAGRAM.equals(o[0])) {
                 continue;
             }
+            if (OPTION_DIAGRAM_THREADS.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_SPLICE_THREADS.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_BATCH_SIZE.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_CACHE.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_CACHE_SIZE.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_FORMAT.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_ENGINE.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_TIMEOUT.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_LAYOUT.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_WARNINGS_FATAL.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_OPTIMIZE.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_DAEMON.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_INCREMENTAL.equals(o[0])) {
+                continue;
+            }
+            if (OPTION_DIAGRAM_SHARE.equals(o[0])) {
+                continue;
+            }
 
             newOptions.add(o);
         }
@@ -133,6 +271,62 @@ public class APIviz {
             return 1;
         }
 
+        if (OPTION_DIAGRAM_THREADS.equals(option)) {
+            return 2;
+        }
+
+        if (OPTION_DIAGRAM_SPLICE_THREADS.equals(option)) {
+            return 2;
+        }
+
+        if (OPTION_DIAGRAM_BATCH_SIZE.equals(option)) {
+            return 2;
+        }
+
+        if (OPTION_DIAGRAM_CACHE.equals(option)) {
+            return 2;
+        }
+
+        if (OPTION_DIAGRAM_CACHE_SIZE.equals(option)) {
+            return 2;
+        }
+
+        if (OPTION_DIAGRAM_FORMAT.equals(option)) {
+            return 2;
+        }
+
+        if (OPTION_DIAGRAM_ENGINE.equals(option)) {
+            return 2;
+        }
+
+        if (OPTION_DIAGRAM_TIMEOUT.equals(option)) {
+            return 2;
+        }
+
+        if (OPTION_DIAGRAM_LAYOUT.equals(option)) {
+            return 2;
+        }
+
+        if (OPTION_DIAGRAM_WARNINGS_FATAL.equals(option)) {
+            return 1;
+        }
+
+        if (OPTION_DIAGRAM_OPTIMIZE.equals(option)) {
+            return 1;
+        }
+
+        if (OPTION_DIAGRAM_DAEMON.equals(option)) {
+            return 2;
+        }
+
+        if (OPTION_DIAGRAM_INCREMENTAL.equals(option)) {
+            return 1;
+        }
+
+        if (OPTION_DIAGRAM_SHARE.equals(option)) {
+            return 1;
+        }
+
         int answer = Standard.optionLength(option);
 
         if (option.equals(OPTION_HELP)) {
@@ -143,6 +337,22 @@ public class APIviz {
             System.out.println(OPTION_NO_PACKAGE_DIAGRAM  + "               Do not generate the package diagram in the overview summary");
             System.out.println(OPTION_CATEGORY + "                       <category>[:<fillcolor>[:<linecolor>]] ");
             System.out.println("                                    Color for items marked with " + TAG_CATEGORY);
+            System.out.println(OPTION_DIAGRAM_THREADS + " <n>             Render up to <n> diagrams concurrently (default: number of processors)");
+            System.out.println(OPTION_DIAGRAM_SPLICE_THREADS + " <n>       Insert up to <n> diagrams into their pages concurrently (default: number of processors)");
+            System.out.println(OPTION_DIAGRAM_BATCH_SIZE + " <n>           Render up to <n> diagrams with a single Graphviz process (default: 1)");
+            System.out.println(OPTION_DIAGRAM_CACHE + " <directory>       Reuse the diagrams rendered previously and stored in <directory>");
+            System.out.println(OPTION_DIAGRAM_CACHE_SIZE + " <megabytes>  Evict the least recently used diagrams from the cache beyond this size (default: 256)");
+            System.out.println(OPTION_DIAGRAM_FORMAT + " <png|svg>        Insert a PNG image with an image map (default), or an inline SVG document");
+            System.out.println(OPTION_DIAGRAM_ENGINE + " <graphviz|builtin|deferred>");
+            System.out.println("                                Render the diagrams with Graphviz, with the built-in layout engine as SVG, or later with " + DeferredRenderer.class.getName() + " (default: Graphviz if available)");
+            System.out.println(OPTION_DIAGRAM_TIMEOUT + " <seconds>      Kill Graphviz after <seconds> per diagram and retry with a cheaper layout (default: no timeout)");
+            System.out.println(OPTION_DIAGRAM_LAYOUT + " <fast|balanced|best|auto>");
+            System.out.println("                                    Trade edge crossings for layout time, or choose by diagram size (default: auto)");
+            System.out.println(OPTION_DIAGRAM_WARNINGS_FATAL + "            Fail if Graphviz reports a warning for any diagram");
+            System.out.println(OPTION_DIAGRAM_OPTIMIZE + "                Re-encode the PNG images losslessly with a palette where possible");
+            System.out.println(OPTION_DIAGRAM_DAEMON + " <port>           Render with the " + RenderDaemon.class.getName() + " listening on the local <port>");
+            System.out.println(OPTION_DIAGRAM_INCREMENTAL + "             Render only the diagrams that changed since the last run into the same directory");
+            System.out.println(OPTION_DIAGRAM_SHARE + "                   Render the diagrams that differ only in their links once, and share the image");
         }
 
         return answer;
@@ -152,7 +362,7 @@ public class APIviz {
         return Standard.languageVersion();
     }
 
-    private static void generateOverviewSummary(RootDoc root, ClassDocGraph graph, File outputDirectory) throws IOException {
+    private static void generateOverviewSummary(RootDoc root, DiagramRenderer renderer, ClassDocGraph graph) throws IOException {
         final Map<String, PackageDoc> packages = getPackages(root);
 
         PackageFilter packageFilter = PackageFilter.all();
@@ -161,7 +371,7 @@ public class APIviz {
             String packageName = entry.getKey();
             PackageDoc p = entry.getValue();
 
-            if (!ClassDocGraph.isHidden(p)) {
+            if (!graph.isHidden(p)) {
                 packageFilter.including(packageName);
             }
         }
@@ -182,9 +392,9 @@ public class APIviz {
 
         jdepend.analyze();
 
-        if (checkClasspathOption(root, jdepend)) {
-            instrumentDiagram(
-                    root, outputDirectory, "overview-summary",
+        if (checkClasspathOption(root, graph, jdepend)) {
+            renderer.render(
+                    "overview-summary",
                     graph.getOverviewSummaryDiagram(jdepend));
         } else {
             root.printWarning(
@@ -198,7 +408,7 @@ public class APIviz {
     }
 
     @SuppressWarnings("unchecked")
-    private static boolean checkClasspathOption(RootDoc root, JDepend jdepend) {
+    private static boolean checkClasspathOption(RootDoc root, ClassDocGraph graph, JDepend jdepend) {
         // Sanity check
         boolean correctClasspath = true;
         if (jdepend.countClasses() == 0) {
@@ -209,7 +419,7 @@ public class APIviz {
             for (ClassDoc c: root.classes()) {
                 if (c.containingPackage() == null ||
                     c.containingPackage().name() == null ||
-                    ClassDocGraph.isHidden(c.containingPackage())) {
+                    graph.isHidden(c.containingPackage())) {
                     continue;
                 }
 
@@ -239,26 +449,23 @@ public class APIviz {
         return correctClasspath;
     }
 
-    private static void generatePackageSummaries(RootDoc root, ClassDocGraph graph, File outputDirectory) throws IOException {
+    private static void generatePackageSummaries(RootDoc root, DiagramRenderer renderer, ClassDocGraph graph) {
         for (PackageDoc p: getPackages(root).values()) {
-            instrumentDiagram(
-                    root, outputDirectory,
+            renderer.render(
                     p.name().replace('.', File.separatorChar) +
                     File.separatorChar + "package-summary",
                     graph.getPackageSummaryDiagram(p));
         }
     }
 
-    private static void generateClassDiagrams(RootDoc root, ClassDocGraph graph, File outputDirectory) throws IOException {
+    private static void generateClassDiagrams(RootDoc root, DiagramRenderer renderer, ClassDocGraph graph) {
         for (ClassDoc c: root.classes()) {
             if (c.containingPackage() == null) {
-                instrumentDiagram(
-                        root, outputDirectory,
+                renderer.render(
                         c.name(),
                         graph.getClassDiagram(c));
             } else {
-                instrumentDiagram(
-                        root, outputDirectory,
+                renderer.render(
                         c.containingPackage().name().replace('.', File.separatorChar) +
                         File.separatorChar + c.name(),
                         graph.getClassDiagram(c));
@@ -278,75 +485,171 @@ public class APIviz {
         return packages;
     }
 
-    private static void instrumentDiagram(RootDoc root, File outputDirectory, String filename, String diagram) throws IOException {
-        // TODO - it would be nice to have a debug flag that would spit out the graphviz source as well
-        //System.out.println(diagram);
-
-        boolean needsBottomMargin = filename.contains("overview-summary") || filename.contains("package-summary");
-
-        File htmlFile = new File(outputDirectory, filename + ".html");
-        File pngFile = new File(outputDirectory, filename + ".png");
-        File mapFile = new File(outputDirectory, filename + ".map");
-
-        if (!htmlFile.exists()) {
-            // Shouldn't reach here anymore.
-            // I'm retaining the code just in case.
-            for (;;) {
-                int idx = filename.lastIndexOf(File.separatorChar);
-                if (idx > 0) {
-                    filename = filename.substring(0, idx) + '.' +
-                               filename.substring(idx + 1);
-                } else {
-                    // Give up (maybe missing)
-                    return;
-                }
-                htmlFile = new File(outputDirectory, filename + ".html");
-                if (htmlFile.exists()) {
-                    pngFile = new File(outputDirectory, filename + ".png");
-                    mapFile = new File(outputDirectory, filename + ".map");
-                    break;
-                }
+    static File getOutputDirectory(String[][] options) {
+        for (String[] o: options) {
+            if (o[0].equals("-d")) {
+                return new File(o[1]);
+            }
+        }
+
+        // Fall back to the current working directory.
+        return new File(System.getProperty("user.dir", "."));
+    }
+
+    static int getDiagramThreads(String[][] options) {
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_THREADS)) {
+                return Integer.parseInt(o[1]);
+            }
+        }
+
+        // Fall back to the number of available processors.
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private static int getDiagramSpliceThreads(String[][] options) {
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_SPLICE_THREADS)) {
+                return Integer.parseInt(o[1]);
+            }
+        }
+
+        // Fall back to the number of available processors.
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private static int getDiagramBatchSize(String[][] options) {
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_BATCH_SIZE)) {
+                return Integer.parseInt(o[1]);
+            }
+        }
+
+        // One Graphviz process per diagram by default.
+        return 1;
+    }
+
+    static LayoutProfile getLayoutProfile(String[][] options) {
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_LAYOUT)) {
+                return LayoutProfile.forName(o[1]);
+            }
+        }
+
+        return LayoutProfile.AUTO;
+    }
+
+    private static long getDiagramTimeout(String[][] options) {
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_TIMEOUT)) {
+                return Integer.parseInt(o[1]) * 1000L;
+            }
+        }
+
+        // Wait as long as it takes.
+        return 0;
+    }
+
+    private static DiagramFormat getDiagramFormat(String[][] options) {
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_FORMAT)) {
+                return DiagramFormat.forName(o[1]);
             }
         }
 
-        root.printNotice("Generating " + pngFile + "...");
-        Graphviz.writeImageAndMap(root, diagram, outputDirectory, filename);
+        return DiagramFormat.PNG;
+    }
 
+    static DiagramEngine getDiagramEngine(String[][] options) {
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_ENGINE)) {
+                return DiagramEngine.forName(o[1]);
+            }
+        }
+
+        return null;
+    }
+
+    static RenderCache getRenderCache(String[][] options, DiagramFormat format) throws IOException {
+        File directory = null;
+        long maxSize = 256L * 1024 * 1024;
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_CACHE)) {
+                directory = new File(o[1]);
+            } else if (o[0].equals(OPTION_DIAGRAM_CACHE_SIZE)) {
+                maxSize = Long.parseLong(o[1]) * 1024 * 1024;
+            }
+        }
+
+        if (directory == null) {
+            return null;
+        }
+        return new RenderCache(directory, maxSize, format, Graphviz.getVersion());
+    }
+
+    private static boolean isPositiveInteger(String value) {
         try {
-            String oldContent = FileUtil.readFile(htmlFile);
-            String mapContent = FileUtil.readFile(mapFile);
-
-            Matcher matcher = INSERTION_POINT_PATTERN.matcher(oldContent);
-            if (!matcher.find()) {
-                throw new IllegalStateException(
-                        "Failed to find an insertion point: " + htmlFile);
-            }
-            String style = "text-align: center;";
-            if (needsBottomMargin) {
-                style += "margin-bottom: 1em;";
-            }
-            String newContent =
-                oldContent.substring(0, matcher.end()) + NEWLINE +
-                mapContent +
-                "<div id=\"apivizContainer\" style=\"" + style + "\">" +
-                "<img src=\"" + pngFile.getName() +
-                        "\" usemap=\"#APIVIZ\" border=\"0\"></div>" +
-                oldContent.substring(matcher.end());
-            FileUtil.writeFile(htmlFile, newContent);
-        } finally {
-            mapFile.delete();
+            return Integer.parseInt(value) > 0;
+        } catch (NumberFormatException e) {
+            return false;
         }
     }
 
-    private static File getOutputDirectory(String[][] options) {
+    private static DiagramManifest getDiagramManifest(
+            String[][] options, DiagramEngine engine, DiagramFormat format) {
+        if (format == null) {
+            return null;
+        }
         for (String[] o: options) {
-            if (o[0].equals("-d")) {
-                return new File(o[1]);
+            if (o[0].equals(OPTION_DIAGRAM_INCREMENTAL)) {
+                String renderer = engine == DiagramEngine.GRAPHVIZ?
+                        Graphviz.getVersion() : engine.name();
+                return new DiagramManifest(getOutputDirectory(options), format, renderer);
             }
         }
+        return null;
+    }
 
-        // Fall back to the current working directory.
-        return new File(System.getProperty("user.dir", "."));
+    private static RenderClient getRenderClient(String[][] options, DiagramEngine engine) {
+        if (engine != DiagramEngine.GRAPHVIZ) {
+            return null;
+        }
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_DAEMON)) {
+                return new RenderClient(Integer.parseInt(o[1]));
+            }
+        }
+        return null;
+    }
+
+    private static PngOptimizer getPngOptimizer(String[][] options, DiagramFormat format) {
+        if (format != DiagramFormat.PNG) {
+            return null;
+        }
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_OPTIMIZE)) {
+                return new PngOptimizer();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isDiagramWarningsFatal(String[][] options) {
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_WARNINGS_FATAL)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDiagramShared(String[][] options) {
+        for (String[] o: options) {
+            if (o[0].equals(OPTION_DIAGRAM_SHARE)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static boolean shouldGeneratePackageDiagram(String[][] options) {
@@ -358,6 +661,25 @@ public class APIviz {
         return true;
     }
 
+    /**
+     * Returns {@code true} if the standard doclet will write
+     * {@code overview-summary.html}, which it does only when more than one
+     * package is documented or an overview was specified, unless
+     * {@code -nooverview} was specified.
+     */
+    private static boolean isOverviewGenerated(RootDoc root) {
+        boolean overview = getPackages(root).size() > 1;
+        for (String[] o: root.options()) {
+            if (o[0].equals("-nooverview")) {
+                return false;
+            }
+            if (o[0].equals("-overview")) {
+                overview = true;
+            }
+        }
+        return overview;
+    }
+
     private static File[] getClassPath(String[][] options) {
         Set<File> cp = new LinkedHashSet<File>();
 
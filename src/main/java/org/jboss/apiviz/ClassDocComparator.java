@@ -33,9 +33,11 @@ import java.util.Comparator;
  */
 class ClassDocComparator implements Comparator<ClassDoc> {
 
+    private final ClassDocGraph graph;
     private final boolean portrait;
 
-    ClassDocComparator(boolean portrait) {
+    ClassDocComparator(ClassDocGraph graph, boolean portrait) {
+        this.graph = graph;
         this.portrait = portrait;
     }
 
@@ -56,7 +58,7 @@ class ClassDocComparator implements Comparator<ClassDoc> {
         }
     }
 
-    private static int getPrecedence(ClassDoc c) {
+    private int getPrecedence(ClassDoc c) {
         if (c.isAnnotationType()) {
             return 0;
         }
@@ -65,7 +67,7 @@ class ClassDocComparator implements Comparator<ClassDoc> {
             return 1;
         }
 
-        if (ClassDocGraph.isStaticType(c)) {
+        if (graph.isStaticNode(c)) {
             return 2;
         }
 
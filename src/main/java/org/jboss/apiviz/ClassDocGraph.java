@@ -27,7 +27,6 @@ import jdepend.framework.JDepend;
 import jdepend.framework.JavaPackage;
 
 import java.util.*;
-import java.util.regex.Pattern;
 
 import static org.jboss.apiviz.Constant.*;
 import static org.jboss.apiviz.EdgeType.*;
@@ -40,9 +39,15 @@ import static org.jboss.apiviz.EdgeType.*;
 public class ClassDocGraph {
 
     final RootDoc root;
-    private final Map<String, ClassDoc> nodes = new TreeMap<String, ClassDoc>();
-    private final Map<ClassDoc, Set<Edge>> edges = new HashMap<ClassDoc, Set<Edge>>();
-    private final Map<ClassDoc, Set<Edge>> reversedEdges = new HashMap<ClassDoc, Set<Edge>>();
+    private Map<String, ClassDoc> nodes = new TreeMap<String, ClassDoc>();
+    private List<Edge> newEdges = new ArrayList<Edge>();
+    private final CompactGraph graph;
+
+    /**
+     * Key = package name<br>
+     * Value = the numbers of the nodes in the package
+     */
+    private final Map<String, BitSet> packageNodes = new HashMap<String, BitSet>();
     private int nonconfiguredCategoryCount = 0;
 
     /**
@@ -51,8 +56,39 @@ public class ClassDocGraph {
      */
     private final Map<String, CategoryOptions> categories = new HashMap<String, CategoryOptions>();
 
+    private final LayoutProfile layoutProfile;
+
+    /**
+     * Key = package or class<br>
+     * Value = the snapshot of its tags
+     */
+    private final Map<Doc, DocTags> docTags = new IdentityHashMap<Doc, DocTags>();
+
+    /**
+     * The numbers of the nodes which are hidden
+     */
+    private final BitSet hiddenNodes = new BitSet();
+
+    /**
+     * The numbers of the nodes which are static types
+     */
+    private final BitSet staticNodes = new BitSet();
+
+    /**
+     * Key = package or class<br>
+     * Value = the filter compiled from its {@link Constant#TAG_EXCLUDE} tags
+     */
+    private final Map<Doc, ExcludeFilter> excludeFilters = new IdentityHashMap<Doc, ExcludeFilter>();
+
+    /**
+     * Key = the texts of {@link Constant#TAG_EXCLUDE} tags<br>
+     * Value = the filter compiled from them, shared by the elements with the same tags
+     */
+    private final Map<List<String>, ExcludeFilter> sharedExcludeFilters = new HashMap<List<String>, ExcludeFilter>();
+
     public ClassDocGraph(RootDoc root) {
         this.root = root;
+        layoutProfile = APIviz.getLayoutProfile(root.options());
 
         //get the colors for the categories
         for (final String[] option : root.options()) {
@@ -76,6 +112,26 @@ public class ClassDocGraph {
         for (ClassDoc node: root.classes()) {
             addNode(node, true);
         }
+
+        graph = new CompactGraph(nodes.values(), newEdges);
+        nodes = null;
+        newEdges = null;
+
+        for (int i = 0; i < graph.getNodeCount(); i ++) {
+            ClassDoc node = graph.getNode(i);
+            hiddenNodes.set(i, getTags(node).isHidden());
+            staticNodes.set(i, isStaticType(node));
+
+            PackageDoc pkg = node.containingPackage();
+            if (pkg != null) {
+                BitSet members = packageNodes.get(pkg.name());
+                if (members == null) {
+                    members = new BitSet();
+                    packageNodes.put(pkg.name(), members);
+                }
+                members.set(i);
+            }
+        }
     }
 
     private void addCategory(final String categoryName, final String fillColor, final String lineColor) {
@@ -89,7 +145,12 @@ public class ClassDocGraph {
         String key = node.qualifiedName();
         if (!nodes.containsKey(key)) {
             nodes.put(key, node);
-            edges.put(node, new TreeSet<Edge>());
+            getTags(node);
+
+            PackageDoc pkg = node.containingPackage();
+            if (pkg != null) {
+                getTags(pkg);
+            }
         }
 
         if (addRelatedClasses) {
@@ -160,14 +221,7 @@ public class ClassDocGraph {
     }
 
     private void addEdge(Edge edge) {
-        edges.get(edge.getSource()).add(edge);
-
-        Set<Edge> reversedEdgeSubset = reversedEdges.get(edge.getTarget());
-        if (reversedEdgeSubset == null) {
-            reversedEdgeSubset = new TreeSet<Edge>();
-            reversedEdges.put((ClassDoc) edge.getTarget(), reversedEdgeSubset);
-        }
-        reversedEdgeSubset.add(edge);
+        newEdges.add(edge);
     }
 
     public String getOverviewSummaryDiagram(JDepend jdepend) {
@@ -254,13 +308,9 @@ public class ClassDocGraph {
                 "digraph APIVIZ {" + NEWLINE +
                 "rankdir=LR;" + NEWLINE +
                 "ranksep=0.3;" + NEWLINE +
-                "nodesep=0.2;" + NEWLINE +
-                "mclimit=128;" + NEWLINE +
-                "outputorder=edgesfirst;" + NEWLINE +
-                "center=1;" + NEWLINE +
-                "remincross=true;" + NEWLINE +
-                "searchsize=65536;" + NEWLINE +
-                "splines=polyline;" + NEWLINE +
+                "nodesep=0.2;" + NEWLINE);
+        appendLayoutSettings(buf, 128, packages.size(), edgesToRender.size());
+        buf.append(
                 "edge [fontsize=10, fontname=\"" + NORMAL_FONT + "\", " +
                 "style=\"setlinewidth(0.6)\"]; " + NEWLINE +
                 "node [shape=box, fontsize=10, fontname=\"" + NORMAL_FONT + "\", " +
@@ -310,28 +360,20 @@ public class ClassDocGraph {
         }
     }
 
-    static boolean isHidden(Doc node) {
+    /**
+     * Returns {@code true} if the specified package or class is hidden.
+     * The result for a node of the graph is looked up by its number, and
+     * the snapshot of the tags is used for the others.
+     */
+    boolean isHidden(Doc node) {
         if (node == null) {
             return false;
         }
-
-        final Tag[] hiddenTags = node.tags(TAG_HIDDEN);
-        if (hiddenTags != null && hiddenTags.length > 0) {
-            return true;
-        }
-
-        Tag[] tags = node.tags(TAG_EXCLUDE);
-        if (tags == null) {
-            return false;
+        int ordinal = graph.getOrdinal(node);
+        if (ordinal >= 0) {
+            return hiddenNodes.get(ordinal);
         }
-
-        for (Tag t: tags) {
-            if (t.text() == null || t.text().trim().length() == 0) {
-                return true;
-            }
-        }
-
-        return false;
+        return getTags(node).isHidden();
     }
 
     private static void addPackageDependency(
@@ -387,31 +429,31 @@ public class ClassDocGraph {
     }
 
     public String getPackageSummaryDiagram(PackageDoc pkg) {
+        Map<String, ClassDoc> nodesToRender = new TreeMap<String, ClassDoc>();
+
+        Set<Edge> edgesToRender = new TreeSet<Edge>();
+
+        // Only the nodes in the package contribute to its diagram.
+        BitSet members = packageNodes.get(pkg.name());
+        if (members != null) {
+            for (int i = members.nextSetBit(0); i >= 0; i = members.nextSetBit(i + 1)) {
+                fetchSubgraph(pkg, graph.getNode(i), nodesToRender, edgesToRender, true, false, true);
+            }
+        }
+
         StringBuilder buf = new StringBuilder(16384);
         buf.append(
                 "digraph APIVIZ {" + NEWLINE +
                 "rankdir=LR;" + NEWLINE +
                 "ranksep=0.3;" + NEWLINE +
-                "nodesep=0.25;" + NEWLINE +
-                "mclimit=1024;" + NEWLINE +
-                "outputorder=edgesfirst;" + NEWLINE +
-                "center=1;" + NEWLINE +
-                "remincross=true;" + NEWLINE +
-                "searchsize=65536;" + NEWLINE +
-                "splines=polyline;" + NEWLINE +
+                "nodesep=0.25;" + NEWLINE);
+        appendLayoutSettings(buf, 1024, nodesToRender.size(), edgesToRender.size());
+        buf.append(
                 "edge [fontsize=10, fontname=\"" + NORMAL_FONT + "\", " +
                 "style=\"setlinewidth(0.6)\"]; " + NEWLINE +
                 "node [shape=box, fontsize=10, fontname=\"" + NORMAL_FONT + "\", " +
                 "width=0.1, height=0.1, style=\"setlinewidth(0.6)\"]; " + NEWLINE);
 
-        Map<String, ClassDoc> nodesToRender = new TreeMap<String, ClassDoc>();
-
-        Set<Edge> edgesToRender = new TreeSet<Edge>();
-
-        for (ClassDoc node: nodes.values()) {
-            fetchSubgraph(pkg, node, nodesToRender, edgesToRender, true, false, true);
-        }
-
         renderSubgraph(pkg, null, buf, nodesToRender, edgesToRender, true);
 
         buf.append("}" + NEWLINE);
@@ -419,10 +461,28 @@ public class ClassDocGraph {
         return buf.toString();
     }
 
+    private DocTags getTags(Doc doc) {
+        DocTags tags = docTags.get(doc);
+        if (tags == null) {
+            tags = new DocTags(doc);
+            docTags.put(doc, tags);
+        }
+        return tags;
+    }
+
+    /**
+     * Returns the options of the category of the specified node, or
+     * {@code null} if the node has no known category.
+     */
+    private CategoryOptions getCategory(Doc node) {
+        String categoryName = getTags(node).getCategory();
+        return categoryName != null? categories.get(categoryName) : null;
+    }
+
     private void checkCategoryExistance(Doc node) {
         //check the if the category for this class exists
-        if (node.tags(TAG_CATEGORY).length > 0 && !categories.containsKey(node.tags(TAG_CATEGORY)[0].text())) {
-            final String categoryName = node.tags(TAG_CATEGORY)[0].text();
+        final String categoryName = getTags(node).getCategory();
+        if (categoryName != null && !categories.containsKey(categoryName)) {
             if (ColorCombination.values().length > nonconfiguredCategoryCount) {
                 categories.put(categoryName, new CategoryOptions(categoryName, ColorCombination.values()[nonconfiguredCategoryCount]));
                 nonconfiguredCategoryCount++;
@@ -441,74 +501,33 @@ public class ClassDocGraph {
             return;
         }
 
-        if (forceInherit) {
-            for (Tag t: pkg.tags(TAG_EXCLUDE)) {
-                if (t.text() == null || t.text().trim().length() == 0) {
-                    continue;
-                }
-
-                if (Pattern.compile(t.text().trim()).matcher(cls.qualifiedName()).find()) {
-                    return;
-                }
-            }
+        if (forceInherit && getExcludeFilter(pkg).matches(cls.qualifiedName())) {
+            return;
         }
 
         if (cls.containingPackage() == pkg) {
-            Set<Edge> directEdges = edges.get(cls);
+            int node = graph.getOrdinal(cls);
             nodesToRender.put(cls.qualifiedName(), cls);
-            for (Edge edge: directEdges) {
-                if (!useSee && edge.getType() == SEE_ALSO) {
+            for (int i = graph.getOutgoingStart(node); i < graph.getOutgoingEnd(node); i ++) {
+                int edge = graph.getOutgoingEdge(i);
+                if (!useSee && graph.getType(edge) == SEE_ALSO) {
                     continue;
                 }
 
-                ClassDoc source = (ClassDoc) edge.getSource();
-                ClassDoc target = (ClassDoc) edge.getTarget();
-
-                boolean excluded = false;
-                if (forceInherit || cls.tags(TAG_INHERIT).length > 0) {
-                    for (Tag t: pkg.tags(TAG_EXCLUDE)) {
-                        if (t.text() == null || t.text().trim().length() == 0) {
-                            continue;
-                        }
-
-                        Pattern p = Pattern.compile(t.text().trim());
-
-                        if (p.matcher(source.qualifiedName()).find()) {
-                            excluded = true;
-                            break;
-                        }
-                        if (p.matcher(target.qualifiedName()).find()) {
-                            excluded = true;
-                            break;
-                        }
-                    }
-                    if (excluded) {
-                        continue;
-                    }
-                }
-
-                for (Tag t: cls.tags(TAG_EXCLUDE)) {
-                    if (t.text() == null || t.text().trim().length() == 0) {
-                        continue;
-                    }
-
-                    Pattern p = Pattern.compile(t.text().trim());
+                ClassDoc source = (ClassDoc) graph.getSourceDoc(edge);
+                ClassDoc target = (ClassDoc) graph.getTargetDoc(edge);
 
-                    if (p.matcher(source.qualifiedName()).find()) {
-                        excluded = true;
-                        break;
-                    }
-                    if (p.matcher(target.qualifiedName()).find()) {
-                        excluded = true;
-                        break;
-                    }
+                if ((forceInherit || getTags(cls).isInherit()) &&
+                    isExcluded(pkg, source, target)) {
+                    continue;
                 }
-                if (excluded) {
+
+                if (isExcluded(cls, source, target)) {
                     continue;
                 }
 
                 if (!useHidden || !isHidden(source) && !isHidden(target)) {
-                    edgesToRender.add(edge);
+                    edgesToRender.add(graph.getEdge(edge));
                 }
                 if (!useHidden || !isHidden(source)) {
                     nodesToRender.put(source.qualifiedName(), source);
@@ -518,79 +537,63 @@ public class ClassDocGraph {
                 }
             }
 
-            Set<Edge> reversedDirectEdges = reversedEdges.get(cls);
-            if (reversedDirectEdges != null) {
-                for (Edge edge: reversedDirectEdges) {
-                    if (!useSee && edge.getType() == SEE_ALSO) {
-                        continue;
-                    }
+            for (int i = graph.getIncomingStart(node); i < graph.getIncomingEnd(node); i ++) {
+                int edge = graph.getIncomingEdge(i);
+                if (!useSee && graph.getType(edge) == SEE_ALSO) {
+                    continue;
+                }
 
-                    if (cls.tags(TAG_EXCLUDE_SUBTYPES).length > 0 &&
-                            (edge.getType() == EdgeType.GENERALIZATION ||
-                             edge.getType() == EdgeType.REALIZATION)) {
-                        continue;
-                    }
+                if (getTags(cls).isExcludeSubtypes() &&
+                        (graph.getType(edge) == EdgeType.GENERALIZATION ||
+                         graph.getType(edge) == EdgeType.REALIZATION)) {
+                    continue;
+                }
 
-                    ClassDoc source = (ClassDoc) edge.getSource();
-                    ClassDoc target = (ClassDoc) edge.getTarget();
-
-                    boolean excluded = false;
-                    if (forceInherit || cls.tags(TAG_INHERIT).length > 0) {
-                        for (Tag t: pkg.tags(TAG_EXCLUDE)) {
-                            if (t.text() == null || t.text().trim().length() == 0) {
-                                continue;
-                            }
-
-                            Pattern p = Pattern.compile(t.text().trim());
-
-                            if (p.matcher(source.qualifiedName()).find()) {
-                                excluded = true;
-                                break;
-                            }
-                            if (p.matcher(target.qualifiedName()).find()) {
-                                excluded = true;
-                                break;
-                            }
-                        }
-                        if (excluded) {
-                            continue;
-                        }
-                    }
+                ClassDoc source = (ClassDoc) graph.getSourceDoc(edge);
+                ClassDoc target = (ClassDoc) graph.getTargetDoc(edge);
 
-                    for (Tag t: cls.tags(TAG_EXCLUDE)) {
-                        if (t.text() == null || t.text().trim().length() == 0) {
-                            continue;
-                        }
-
-                        Pattern p = Pattern.compile(t.text().trim());
-
-                        if (p.matcher(source.qualifiedName()).find()) {
-                            excluded = true;
-                            break;
-                        }
-                        if (p.matcher(target.qualifiedName()).find()) {
-                            excluded = true;
-                            break;
-                        }
-                    }
-                    if (excluded) {
-                        continue;
-                    }
+                if ((forceInherit || getTags(cls).isInherit()) &&
+                    isExcluded(pkg, source, target)) {
+                    continue;
+                }
 
-                    if (!useHidden || !isHidden(source) && !isHidden(target)) {
-                        edgesToRender.add(edge);
-                    }
-                    if (!useHidden || !isHidden(source)) {
-                        nodesToRender.put(source.qualifiedName(), source);
-                    }
-                    if (!useHidden || !isHidden(target)) {
-                        nodesToRender.put(target.qualifiedName(), target);
-                    }
+                if (isExcluded(cls, source, target)) {
+                    continue;
+                }
+
+                if (!useHidden || !isHidden(source) && !isHidden(target)) {
+                    edgesToRender.add(graph.getEdge(edge));
+                }
+                if (!useHidden || !isHidden(source)) {
+                    nodesToRender.put(source.qualifiedName(), source);
+                }
+                if (!useHidden || !isHidden(target)) {
+                    nodesToRender.put(target.qualifiedName(), target);
                 }
             }
         }
     }
 
+    private boolean isExcluded(Doc doc, ClassDoc source, ClassDoc target) {
+        ExcludeFilter filter = getExcludeFilter(doc);
+        return filter.matches(source.qualifiedName()) ||
+               filter.matches(target.qualifiedName());
+    }
+
+    private ExcludeFilter getExcludeFilter(Doc doc) {
+        ExcludeFilter filter = excludeFilters.get(doc);
+        if (filter == null) {
+            List<String> expressions = getTags(doc).getExcludes();
+            filter = sharedExcludeFilters.get(expressions);
+            if (filter == null) {
+                filter = new ExcludeFilter(expressions);
+                sharedExcludeFilters.put(expressions, filter);
+            }
+            excludeFilters.put(doc, filter);
+        }
+        return filter;
+    }
+
     public String getClassDiagram(ClassDoc cls) {
         PackageDoc pkg = cls.containingPackage();
 
@@ -640,13 +643,8 @@ public class ClassDocGraph {
             portrait = true;
         }
 
+        appendLayoutSettings(buf, 128, nodesToRender.size(), edgesToRender.size());
         buf.append(
-                "mclimit=128;" + NEWLINE +
-                "outputorder=edgesfirst;" + NEWLINE +
-                "center=1;" + NEWLINE +
-                "remincross=true;" + NEWLINE +
-                "searchsize=65536;" + NEWLINE +
-                "splines=polyline;" + NEWLINE +
                 "edge [fontsize=10, fontname=\"" + NORMAL_FONT + "\", " +
                 "style=\"setlinewidth(0.6)\"]; " + NEWLINE +
                 "node [shape=box, fontsize=10, fontname=\"" + NORMAL_FONT + "\", " +
@@ -659,12 +657,31 @@ public class ClassDocGraph {
         return buf.toString();
     }
 
+    /**
+     * Appends the layout settings of the {@link LayoutProfile} chosen for a
+     * diagram of the specified size.
+     *
+     * @param bestMclimit the <tt>mclimit</tt> of the most thorough layout
+     */
+    private void appendLayoutSettings(
+            StringBuilder buf, int bestMclimit, int nodeCount, int edgeCount) {
+        LayoutProfile profile = layoutProfile.resolve(nodeCount, edgeCount);
+        buf.append("mclimit=" + profile.getMclimit(bestMclimit) + ";" + NEWLINE);
+        buf.append("outputorder=edgesfirst;" + NEWLINE);
+        buf.append("center=1;" + NEWLINE);
+        if (profile.isRemincross()) {
+            buf.append("remincross=true;" + NEWLINE);
+        }
+        buf.append("searchsize=" + profile.getSearchSize() + ";" + NEWLINE);
+        buf.append("splines=polyline;" + NEWLINE);
+    }
+
     private void renderSubgraph(PackageDoc pkg, ClassDoc cls,
             StringBuilder buf, Map<String, ClassDoc> nodesToRender,
             Set<Edge> edgesToRender, boolean portrait) {
 
         List<ClassDoc> nodesToRenderCopy = new ArrayList<ClassDoc>(nodesToRender.values());
-        Collections.sort(nodesToRenderCopy, new ClassDocComparator(portrait));
+        Collections.sort(nodesToRenderCopy, new ClassDocComparator(this, portrait));
 
         for (ClassDoc node: nodesToRenderCopy) {
             renderClass(pkg, cls, buf, node);
@@ -684,7 +701,7 @@ public class ClassDocGraph {
         buf.append(" [label=\"");
         buf.append(pkg.name().substring(prefixLen));
         buf.append("\", style=\"filled");
-        if (pkg.tags("@deprecated").length > 0) {
+        if (getTags(pkg).isDeprecated()) {
             buf.append(",dotted");
         }
         buf.append("\", fillcolor=\"");
@@ -715,7 +732,7 @@ public class ClassDocGraph {
             buf.append("\"");
         }
         buf.append(", style=\"filled");
-        if (node.tags("@deprecated").length > 0) {
+        if (getTags(node).isDeprecated()) {
             buf.append(",dotted");
         }
         buf.append("\", color=\"");
@@ -777,7 +794,7 @@ public class ClassDocGraph {
         buf.append(NEWLINE);
     }
 
-    private static String getStereotype(ClassDoc node) {
+    private String getStereotype(ClassDoc node) {
         String stereotype = node.isInterface()? "interface" : null;
         if (node.isException() || node.isError()) {
             stereotype = "exception";
@@ -785,17 +802,29 @@ public class ClassDocGraph {
             stereotype = "annotation";
         } else if (node.isEnum()) {
             stereotype = "enum";
-        } else if (isStaticType(node)) {
+        } else if (isStaticNode(node)) {
             stereotype = "static";
         }
 
-        if (node.tags(TAG_STEREOTYPE).length > 0) {
-            stereotype = node.tags(TAG_STEREOTYPE)[0].text();
+        if (getTags(node).getStereotype() != null) {
+            stereotype = getTags(node).getStereotype();
         }
 
         return escape(stereotype);
     }
 
+    /**
+     * Same as {@link #isStaticType(ClassDoc)}, but the result for a node of
+     * the graph is looked up by its number.
+     */
+    boolean isStaticNode(ClassDoc node) {
+        int ordinal = graph.getOrdinal(node);
+        if (ordinal >= 0) {
+            return staticNodes.get(ordinal);
+        }
+        return isStaticType(node);
+    }
+
     static boolean isStaticType(ClassDoc node) {
         boolean staticType = true;
         int methods = 0;
@@ -815,10 +844,11 @@ public class ClassDocGraph {
 
     private String getFillColor(PackageDoc pkg) {
         String color = "white";
-        if (pkg.tags(TAG_CATEGORY).length > 0 && categories.containsKey(pkg.tags(TAG_CATEGORY)[0].text())) {
-            color = categories.get(pkg.tags(TAG_CATEGORY)[0].text()).getFillColor();
+        CategoryOptions category = getCategory(pkg);
+        if (category != null) {
+            color = category.getFillColor();
         }
-        if (pkg.tags(TAG_LANDMARK).length > 0) {
+        if (getTags(pkg).isLandmark()) {
             color = "khaki1";
         }
         return color;
@@ -830,20 +860,21 @@ public class ClassDocGraph {
             //we are rendering for a package summary since there is no cls
 
             //see if the node has a fill color
-            if (node.tags(TAG_CATEGORY).length > 0 && categories.containsKey(node.tags(TAG_CATEGORY)[0].text())) {
-                color = categories.get(node.tags(TAG_CATEGORY)[0].text()).getFillColor();
+            CategoryOptions category = getCategory(node);
+            if (category != null) {
+                color = category.getFillColor();
             }
 
             //override any previous values if a landmark is set
-            if (node.containingPackage() == pkg && node.tags(TAG_LANDMARK).length > 0) {
+            if (node.containingPackage() == pkg && getTags(node).isLandmark()) {
                 color = "khaki1";
             }
         } else if (cls == node) {
             //this is class we are rending the class diagram for
             color = "khaki1";
-        } else if (node.tags(TAG_CATEGORY).length > 0 && categories.containsKey(node.tags(TAG_CATEGORY)[0].text())) {
+        } else if (getCategory(node) != null) {
             //not the class for the class diagram so use its fill color
-            color = categories.get(node.tags(TAG_CATEGORY)[0].text()).getFillColor();
+            color = getCategory(node).getFillColor();
             if (node.containingPackage() != pkg && color.matches("^[!@#$%^&*+=][0-9A-Fa-f]{6}$")) {
                 //grey out the fill color
                 final StringBuffer sb = new StringBuffer("#");
@@ -872,8 +903,8 @@ public class ClassDocGraph {
 
     private String getLineColor(PackageDoc pkg, ClassDoc cls, ClassDoc node) {
         String color = "#000000";
-        if (cls != node && node.tags(TAG_LANDMARK).length <= 0 && node.tags(TAG_CATEGORY).length > 0 && categories.containsKey(node.tags(TAG_CATEGORY)[0].text())) {
-            color = categories.get(node.tags(TAG_CATEGORY)[0].text()).getLineColor();
+        if (cls != node && !getTags(node).isLandmark() && getCategory(node) != null) {
+            color = getCategory(node).getLineColor();
         }
 
         if (node.containingPackage() != pkg) {
@@ -897,10 +928,8 @@ public class ClassDocGraph {
         } else {
             //not a class (a package or something)
             String color = "#000000";
-            if (pkg != null &&
-                    pkg.tags(TAG_CATEGORY).length > 0 &&
-                    categories.containsKey(pkg.tags(TAG_CATEGORY)[0].text())) {
-                color = categories.get(pkg.tags(TAG_CATEGORY)[0].text()).getLineColor();
+            if (pkg != null && getCategory(pkg) != null) {
+                color = getCategory(pkg).getLineColor();
             }
             return color;
         }
@@ -932,7 +961,7 @@ public class ClassDocGraph {
         return name.replace('.', '_');
     }
 
-    private static String getNodeLabel(PackageDoc pkg, ClassDoc node) {
+    private String getNodeLabel(PackageDoc pkg, ClassDoc node) {
         StringBuilder buf = new StringBuilder(256);
         String stereotype = getStereotype(node);
         if (stereotype != null) {
@@ -0,0 +1,313 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import com.sun.javadoc.ClassDoc;
+import com.sun.javadoc.Doc;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, compact representation of the classes and the edges of a
+ * {@link ClassDocGraph}.  The nodes are numbered in the order they are
+ * given, and the edges in their natural order, with the duplicates removed.
+ * The outgoing and the incoming edges of each node are stored as ranges of
+ * edge numbers in two flat arrays, so the edges of a node are visited in
+ * the same order as a sorted set of them would be.  An edge whose source
+ * or target is not a node has no node number there.
+ * <p>
+ * The edges are not kept as objects: their types, ends and labels are
+ * stored in parallel arrays, with each distinct label stored once, and
+ * {@link #getEdge(int)} creates an {@link Edge} only when one is needed.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+final class CompactGraph {
+
+    private static final EdgeType[] EDGE_TYPES = EdgeType.values();
+
+    private final ClassDoc[] nodes;
+
+    /**
+     * The ends of the edges which are not nodes, numbered after the nodes.
+     */
+    private final Doc[] others;
+
+    /**
+     * An open addressing table of node numbers, keyed by the identity of
+     * the nodes, with {@code -1} in the empty slots.
+     */
+    private final int[] slots;
+
+    private final byte[] types;
+    private final int[] sources;
+    private final int[] targets;
+    private final String[] labels;
+    private final int[] sourceLabels;
+    private final int[] targetLabels;
+    private final int[] edgeLabels;
+    private final BitSet oneway;
+
+    private final int[] outgoingOffsets;
+    private final int[] outgoingEdges;
+    private final int[] incomingOffsets;
+    private final int[] incomingEdges;
+
+    CompactGraph(Collection<ClassDoc> nodes, List<Edge> edges) {
+        this.nodes = nodes.toArray(new ClassDoc[nodes.size()]);
+        int nodeCount = this.nodes.length;
+        int capacity = 2;
+        while (capacity < nodeCount * 2) {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+        for (int i = 0; i < capacity; i ++) {
+            slots[i] = -1;
+        }
+        for (int i = 0; i < nodeCount; i ++) {
+            int slot = getSlot(this.nodes[i]);
+            while (slots[slot] >= 0) {
+                slot = slot + 1 & slots.length - 1;
+            }
+            slots[slot] = i;
+        }
+
+        // Sort stably so that the first of the equal edges is kept.
+        List<Edge> sortedEdges = new ArrayList<Edge>(edges);
+        Collections.sort(sortedEdges);
+        List<Edge> uniqueEdges = new ArrayList<Edge>(sortedEdges.size());
+        for (Edge e: sortedEdges) {
+            if (uniqueEdges.isEmpty() ||
+                uniqueEdges.get(uniqueEdges.size() - 1).compareTo(e) != 0) {
+                uniqueEdges.add(e);
+            }
+        }
+
+        int edgeCount = uniqueEdges.size();
+        types = new byte[edgeCount];
+        sources = new int[edgeCount];
+        targets = new int[edgeCount];
+        sourceLabels = new int[edgeCount];
+        targetLabels = new int[edgeCount];
+        edgeLabels = new int[edgeCount];
+        oneway = new BitSet(edgeCount);
+        List<Doc> others = new ArrayList<Doc>();
+        Map<Doc, Integer> otherIds = new IdentityHashMap<Doc, Integer>();
+        Map<String, Integer> labelIds = new HashMap<String, Integer>();
+        List<String> labels = new ArrayList<String>();
+        for (int e = 0; e < edgeCount; e ++) {
+            Edge edge = uniqueEdges.get(e);
+            types[e] = (byte) edge.getType().ordinal();
+            sources[e] = getDocId(edge.getSource(), others, otherIds);
+            targets[e] = getDocId(edge.getTarget(), others, otherIds);
+            sourceLabels[e] = getLabelId(edge.getSourceLabel(), labels, labelIds);
+            targetLabels[e] = getLabelId(edge.getTargetLabel(), labels, labelIds);
+            edgeLabels[e] = getLabelId(edge.getEdgeLabel(), labels, labelIds);
+            oneway.set(e, edge.isOneway());
+        }
+        this.others = others.toArray(new Doc[others.size()]);
+        this.labels = labels.toArray(new String[labels.size()]);
+
+        outgoingOffsets = new int[nodeCount + 1];
+        incomingOffsets = new int[nodeCount + 1];
+        for (int e = 0; e < edgeCount; e ++) {
+            if (sources[e] < nodeCount) {
+                outgoingOffsets[sources[e] + 1] ++;
+            }
+            if (targets[e] < nodeCount) {
+                incomingOffsets[targets[e] + 1] ++;
+            }
+        }
+        for (int i = 0; i < nodeCount; i ++) {
+            outgoingOffsets[i + 1] += outgoingOffsets[i];
+            incomingOffsets[i + 1] += incomingOffsets[i];
+        }
+
+        outgoingEdges = new int[outgoingOffsets[nodeCount]];
+        incomingEdges = new int[incomingOffsets[nodeCount]];
+        int[] outgoingCounts = new int[nodeCount];
+        int[] incomingCounts = new int[nodeCount];
+        for (int e = 0; e < edgeCount; e ++) {
+            int source = sources[e];
+            if (source < nodeCount) {
+                outgoingEdges[outgoingOffsets[source] + outgoingCounts[source] ++] = e;
+            }
+            int target = targets[e];
+            if (target < nodeCount) {
+                incomingEdges[incomingOffsets[target] + incomingCounts[target] ++] = e;
+            }
+        }
+    }
+
+    private int getSlot(Doc doc) {
+        int h = System.identityHashCode(doc);
+        return (h ^ h >>> 16) & slots.length - 1;
+    }
+
+    /**
+     * Returns the number of the specified end of an edge, numbering it
+     * after the nodes if it is not a node.
+     */
+    private int getDocId(Doc doc, List<Doc> others, Map<Doc, Integer> otherIds) {
+        int id = getOrdinal(doc);
+        if (id < 0) {
+            Integer other = otherIds.get(doc);
+            if (other == null) {
+                other = nodes.length + others.size();
+                others.add(doc);
+                otherIds.put(doc, other);
+            }
+            id = other;
+        }
+        return id;
+    }
+
+    private Doc getDoc(int id) {
+        return id < nodes.length? nodes[id] : others[id - nodes.length];
+    }
+
+    private static int getLabelId(String label, List<String> labels, Map<String, Integer> labelIds) {
+        Integer id = labelIds.get(label);
+        if (id == null) {
+            id = labels.size();
+            labels.add(label);
+            labelIds.put(label, id);
+        }
+        return id;
+    }
+
+    int getNodeCount() {
+        return nodes.length;
+    }
+
+    ClassDoc getNode(int node) {
+        return nodes[node];
+    }
+
+    /**
+     * Returns the number of the specified node, or {@code -1} if it is not
+     * a node of this graph.
+     */
+    int getOrdinal(Doc doc) {
+        for (int slot = getSlot(doc);; slot = slot + 1 & slots.length - 1) {
+            int node = slots[slot];
+            if (node < 0 || nodes[node] == doc) {
+                return node;
+            }
+        }
+    }
+
+    int getEdgeCount() {
+        return types.length;
+    }
+
+    /**
+     * Creates the specified edge.  The edges created for the same edge
+     * number are equal, but not the same.
+     */
+    Edge getEdge(int edge) {
+        return new Edge(
+                getType(edge), getDoc(sources[edge]), getDoc(targets[edge]),
+                labels[sourceLabels[edge]], labels[targetLabels[edge]],
+                labels[edgeLabels[edge]], oneway.get(edge));
+    }
+
+    EdgeType getType(int edge) {
+        return EDGE_TYPES[types[edge]];
+    }
+
+    Doc getSourceDoc(int edge) {
+        return getDoc(sources[edge]);
+    }
+
+    Doc getTargetDoc(int edge) {
+        return getDoc(targets[edge]);
+    }
+
+    /**
+     * Returns the number of the source node of the specified edge, or
+     * {@code -1} if the source is not a node of this graph.
+     */
+    int getSource(int edge) {
+        return sources[edge] < nodes.length? sources[edge] : -1;
+    }
+
+    /**
+     * Returns the number of the target node of the specified edge, or
+     * {@code -1} if the target is not a node of this graph.
+     */
+    int getTarget(int edge) {
+        return targets[edge] < nodes.length? targets[edge] : -1;
+    }
+    /**
+     * Returns the index of the first outgoing edge of the specified node,
+     * to be passed to {@link #getOutgoingEdge(int)}.
+     */
+    int getOutgoingStart(int node) {
+        return outgoingOffsets[node];
+    }
+
+    /**
+     * Returns the index after the last outgoing edge of the specified node.
+     */
+    int getOutgoingEnd(int node) {
+        return outgoingOffsets[node + 1];
+    }
+
+    /**
+     * Returns the number of the outgoing edge at the specified index.
+     */
+    int getOutgoingEdge(int index) {
+        return outgoingEdges[index];
+    }
+
+    /**
+     * Returns the index of the first incoming edge of the specified node,
+     * to be passed to {@link #getIncomingEdge(int)}.
+     */
+    int getIncomingStart(int node) {
+        return incomingOffsets[node];
+    }
+
+    /**
+     * Returns the index after the last incoming edge of the specified node.
+     */
+    int getIncomingEnd(int node) {
+        return incomingOffsets[node + 1];
+    }
+
+    /**
+     * Returns the number of the incoming edge at the specified index.
+     */
+    int getIncomingEdge(int index) {
+        return incomingEdges[index];
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import com.sun.javadoc.DocErrorReporter;
+import com.sun.javadoc.SourcePosition;
+
+/**
+ * Prints the messages of the tools that run outside javadoc in the same
+ * format as javadoc does.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class ConsoleErrorReporter implements DocErrorReporter {
+
+    private final String name;
+    private final boolean quiet;
+
+    ConsoleErrorReporter(String name, boolean quiet) {
+        this.name = name;
+        this.quiet = quiet;
+    }
+
+    public void printError(String msg) {
+        System.err.println(name + ": error - " + msg);
+    }
+
+    public void printError(SourcePosition pos, String msg) {
+        System.err.println(pos + ": error - " + msg);
+    }
+
+    public void printWarning(String msg) {
+        System.err.println(name + ": warning - " + msg);
+    }
+
+    public void printWarning(SourcePosition pos, String msg) {
+        System.err.println(pos + ": warning - " + msg);
+    }
+
+    public void printNotice(String msg) {
+        if (!quiet) {
+            System.out.println(msg);
+        }
+    }
+
+    public void printNotice(SourcePosition pos, String msg) {
+        if (!quiet) {
+            System.out.println(pos + ": " + msg);
+        }
+    }
+}
@@ -67,6 +67,20 @@ public class Constant {
     public static final String OPTION_NO_PACKAGE_DIAGRAM  = "-nopackagediagram";
     public static final String OPTION_SOURCE_CLASS_PATH   = "-sourceclasspath";
     public static final String OPTION_CATEGORY = "-category";
+    public static final String OPTION_DIAGRAM_THREADS = "-diagramthreads";
+    public static final String OPTION_DIAGRAM_SPLICE_THREADS = "-diagramsplicethreads";
+    public static final String OPTION_DIAGRAM_BATCH_SIZE = "-diagrambatchsize";
+    public static final String OPTION_DIAGRAM_CACHE = "-diagramcache";
+    public static final String OPTION_DIAGRAM_CACHE_SIZE = "-diagramcachesize";
+    public static final String OPTION_DIAGRAM_FORMAT = "-diagramformat";
+    public static final String OPTION_DIAGRAM_ENGINE = "-diagramengine";
+    public static final String OPTION_DIAGRAM_TIMEOUT = "-diagramtimeout";
+    public static final String OPTION_DIAGRAM_LAYOUT = "-diagramlayout";
+    public static final String OPTION_DIAGRAM_WARNINGS_FATAL = "-diagramwarningsfatal";
+    public static final String OPTION_DIAGRAM_OPTIMIZE = "-diagramoptimize";
+    public static final String OPTION_DIAGRAM_DAEMON = "-diagramdaemon";
+    public static final String OPTION_DIAGRAM_INCREMENTAL = "-diagramincremental";
+    public static final String OPTION_DIAGRAM_SHARE = "-diagramshare";
     public static final String OPTION_HELP ="-help";
 
     private Constant() {
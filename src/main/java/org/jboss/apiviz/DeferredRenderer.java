@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.jboss.apiviz.Constant.*;
+
+/**
+ * Renders the diagrams left behind by a javadoc run with
+ * <tt>-diagramengine deferred</tt>, so that javadoc does not need
+ * Graphviz and the diagrams can be rendered by a separate build step.
+ * The diagram sources are found in the output directory, rendered
+ * concurrently and inserted into their pages in place of the
+ * placeholders.  Only the sources with the suffix APIviz gives them are
+ * rendered, and a source is deleted only once its diagram has replaced
+ * the placeholder in its page.  The rendering options of the doclet apply:
+ * <pre>
+ * java -cp apiviz.jar:tools.jar org.jboss.apiviz.DeferredRenderer \
+ *      -d &lt;directory&gt; [-diagramformat png|svg] [-diagramthreads &lt;n&gt;] ... [-quiet]
+ * </pre>
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+public class DeferredRenderer {
+
+    private static final String OPTION_QUIET = "-quiet";
+
+    public static void main(String[] args) {
+        if (!render(args)) {
+            System.exit(1);
+        }
+    }
+
+    static boolean render(String[] args) {
+        List<String[]> optionList = new ArrayList<String[]>();
+        boolean quiet = false;
+        for (int i = 0; i < args.length;) {
+            if (OPTION_QUIET.equals(args[i])) {
+                quiet = true;
+                i ++;
+                continue;
+            }
+
+            int length = OPTION_HELP.equals(args[i])? 0 : APIviz.optionLength(args[i]);
+            if (length <= 0 || i + length > args.length) {
+                System.err.println(
+                        "Usage: " + DeferredRenderer.class.getName() +
+                        " -d <directory> [<doclet options>] [" + OPTION_QUIET + "]");
+                return false;
+            }
+            String[] o = new String[length];
+            System.arraycopy(args, i, o, 0, length);
+            optionList.add(o);
+            i += length;
+        }
+        String[][] options = optionList.toArray(new String[optionList.size()][]);
+
+        ConsoleErrorReporter reporter = new ConsoleErrorReporter("apiviz", quiet);
+        if (!APIviz.validOptions(options, reporter)) {
+            return false;
+        }
+        if (APIviz.getDiagramEngine(options) == DiagramEngine.DEFERRED) {
+            reporter.printError(
+                    OPTION_DIAGRAM_ENGINE + " requires either 'graphviz' or 'builtin'.");
+            return false;
+        }
+
+        File outputDirectory = APIviz.getOutputDirectory(options);
+        List<File> sources = new ArrayList<File>();
+        findSources(outputDirectory, sources);
+        if (sources.isEmpty()) {
+            reporter.printNotice("No diagrams to render in " + outputDirectory);
+            return true;
+        }
+
+        DiagramRenderer renderer;
+        try {
+            renderer = APIviz.createRenderer(reporter, options);
+        } catch (Exception e) {
+            reporter.printError("Failed to prepare diagram generation: " + e.getMessage());
+            return false;
+        }
+        if (renderer == null) {
+            return false;
+        }
+
+        String prefix = outputDirectory.getPath() + File.separatorChar;
+        List<String> filenames = new ArrayList<String>(sources.size());
+        try {
+            for (File f: sources) {
+                String path = f.getPath();
+                String filename = path.substring(
+                        prefix.length(), path.length() - Diagram.SOURCE_SUFFIX.length());
+                filenames.add(filename);
+                renderer.renderDeferred(filename, new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+            }
+            renderer.start();
+            renderer.finish();
+        } catch (Throwable t) {
+            reporter.printError(
+                    "An error occurred during diagram generation: " +
+                    t.toString());
+            t.printStackTrace();
+            return false;
+        } finally {
+            renderer.shutdown();
+        }
+
+        for (int i = 0; i < sources.size(); i ++) {
+            if (renderer.isReplaced(filenames.get(i))) {
+                sources.get(i).delete();
+            }
+        }
+        return true;
+    }
+
+    private static void findSources(File directory, List<File> sources) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f: files) {
+            if (f.isDirectory()) {
+                // Skip the state of APIviz itself.
+                if (!f.getName().startsWith(".")) {
+                    findSources(f, sources);
+                }
+            } else if (f.getName().endsWith(Diagram.SOURCE_SUFFIX)) {
+                sources.add(f);
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.jboss.apiviz.Constant.*;
+
+/**
+ * A diagram source paired with the name of the page it belongs to.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class Diagram {
+
+    // Distinct from the suffix of the DOT files a project might have among
+    // its documentation files, which must not be rendered and deleted.
+    static final String SOURCE_SUFFIX = ".apiviz.dot";
+
+    private static final Pattern REMINCROSS_PATTERN = Pattern.compile("(?m)^remincross=[^;]*;\\s*");
+    private static final Pattern MCLIMIT_PATTERN = Pattern.compile("(?m)^mclimit=[^;]*;");
+    private static final Pattern SEARCHSIZE_PATTERN = Pattern.compile("(?m)^searchsize=[^;]*;");
+    private static final Pattern SPLINES_PATTERN = Pattern.compile("(?m)^splines=[^;]*;");
+    private static final Pattern HREF_ATTRIBUTE_PATTERN = Pattern.compile(", href=\"([^\"]*)\"");
+    private static final Pattern NODE_ID_PATTERN = Pattern.compile("(?m)(^|-> )([A-Za-z_][A-Za-z0-9_]*)(?= \\[| -> )");
+    private static final Pattern HREF_PATTERN = Pattern.compile("(href=\")([^\"]*)(\")");
+
+    private final String filename;
+    private final String source;
+    private final int nodeCount;
+    private final int edgeCount;
+
+    Diagram(String filename, String source) {
+        this.filename = filename;
+        this.source = source;
+
+        // Every statement generated by ClassDocGraph is on its own line.
+        int nodeCount = 0;
+        int edgeCount = 0;
+        for (String line: source.split("\n")) {
+            if (line.contains(" -> ")) {
+                edgeCount ++;
+            } else if (line.contains(" [") &&
+                       !line.startsWith("node ") && !line.startsWith("edge ") &&
+                       !line.startsWith("graph ")) {
+                nodeCount ++;
+            }
+        }
+        this.nodeCount = nodeCount;
+        this.edgeCount = edgeCount;
+    }
+
+    /**
+     * Returns the path of the page relative to the output directory,
+     * without the extension.
+     */
+    String getFilename() {
+        return filename;
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Returns the estimated cost of laying out this diagram.  It is only
+     * meant to compare diagrams with each other.
+     */
+    long getCost() {
+        // The crossing minimization of dot is superlinear.
+        long size = nodeCount + edgeCount;
+        return size * size;
+    }
+
+    boolean isSummary() {
+        return filename.contains("overview-summary") || filename.contains("package-summary");
+    }
+
+    File getHtmlFile(File outputDirectory) {
+        return new File(outputDirectory, filename + ".html");
+    }
+
+    File getImageFile(File outputDirectory) {
+        return new File(outputDirectory, filename + ".png");
+    }
+
+    /**
+     * Returns the source of this diagram without the links, which are
+     * relative to the page and do not affect the rendered image.  Two
+     * diagrams with the same layout source look exactly the same.  The
+     * labels, including the one of the highlighted class, are drawn into
+     * the image and are therefore kept; only the diagrams of classes with
+     * the same simple name and the same neighbourhood, such as the same
+     * class in two versions of a package, end up with the same layout
+     * source.
+     *
+     * @param renameNodes whether the node identifiers should be replaced
+     *                    with their ordinals too, which is possible only
+     *                    if they do not appear in the rendered output
+     */
+    String getLayoutSource(boolean renameNodes) {
+        String s = HREF_ATTRIBUTE_PATTERN.matcher(source).replaceAll("");
+        if (!renameNodes) {
+            return s;
+        }
+
+        Map<String, String> ids = new HashMap<String, String>();
+        Matcher m = NODE_ID_PATTERN.matcher(s);
+        StringBuffer buf = new StringBuffer(s.length());
+        while (m.find()) {
+            String id = m.group(2);
+            if ("node".equals(id) || "edge".equals(id) || "graph".equals(id)) {
+                continue;
+            }
+            String newId = ids.get(id);
+            if (newId == null) {
+                newId = "n" + ids.size();
+                ids.put(id, newId);
+            }
+            m.appendReplacement(buf, Matcher.quoteReplacement(m.group(1) + newId));
+        }
+        m.appendTail(buf);
+        return buf.toString();
+    }
+
+    /**
+     * Maps the links of the specified diagram to the links of this diagram,
+     * which must have the same {@linkplain #getLayoutSource(boolean) layout
+     * source}.
+     *
+     * @return the map, or {@code null} if a link of the specified diagram
+     *         corresponds to more than one link of this diagram
+     */
+    Map<String, String> mapLinks(Diagram other) {
+        List<String> links = getLinks(source);
+        List<String> otherLinks = getLinks(other.source);
+        if (links.size() != otherLinks.size()) {
+            return null;
+        }
+
+        Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < links.size(); i ++) {
+            String oldLink = map.put(otherLinks.get(i), links.get(i));
+            if (oldLink != null && !oldLink.equals(links.get(i))) {
+                return null;
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Replaces the links in the specified image map or SVG document.
+     *
+     * @param links the links to replace, as returned by {@link #mapLinks(Diagram)}
+     */
+    static String replaceLinks(String text, Map<String, String> links) {
+        Matcher m = HREF_PATTERN.matcher(text);
+        StringBuffer buf = new StringBuffer(text.length());
+        while (m.find()) {
+            String link = links.get(m.group(2));
+            if (link == null) {
+                link = m.group(2);
+            }
+            m.appendReplacement(buf, Matcher.quoteReplacement(m.group(1) + link + m.group(3)));
+        }
+        m.appendTail(buf);
+        return buf.toString();
+    }
+
+    private static List<String> getLinks(String source) {
+        List<String> links = new ArrayList<String>();
+        Matcher m = HREF_ATTRIBUTE_PATTERN.matcher(source);
+        while (m.find()) {
+            links.add(m.group(1));
+        }
+        return links;
+    }
+
+    /**
+     * Returns a copy of this diagram with the layout settings that are
+     * much cheaper to compute: fewer crossing minimization iterations,
+     * straight edges and no final crossing reduction pass.
+     */
+    Diagram degrade() {
+        String s = REMINCROSS_PATTERN.matcher(source).replaceAll("");
+        s = setGraphAttribute(s, MCLIMIT_PATTERN, "mclimit", "0.1");
+        s = setGraphAttribute(s, SEARCHSIZE_PATTERN, "searchsize", "30");
+        s = setGraphAttribute(s, SPLINES_PATTERN, "splines", "line");
+        return new Diagram(filename, s);
+    }
+
+    /**
+     * Sets the specified graph attribute.
+     *
+     * @param pattern the pattern that matches the existing attribute
+     */
+    private static String setGraphAttribute(String source, Pattern pattern, String name, String value) {
+        Matcher m = pattern.matcher(source);
+        if (m.find()) {
+            return source.substring(0, m.start()) + name + '=' + value + ';' + source.substring(m.end());
+        }
+
+        int i = source.indexOf('{') + 1;
+        return source.substring(0, i) + NEWLINE + name + '=' + value + ';' + source.substring(i);
+    }
+}
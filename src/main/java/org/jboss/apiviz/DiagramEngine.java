@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+/**
+ * The engine that lays out and renders the diagrams.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+public enum DiagramEngine {
+    /**
+     * The {@code dot} executable of Graphviz.
+     */
+    GRAPHVIZ,
+    /**
+     * A built-in layered layout, which requires no external
+     * process but renders SVG only.
+     */
+    BUILTIN,
+    /**
+     * No engine at all; the Graphviz source of each diagram is written
+     * next to its page, and the page gets a placeholder that
+     * {@link DeferredRenderer} replaces with the rendered diagram later.
+     */
+    DEFERRED;
+
+    /**
+     * Returns the engine with the specified name, ignoring case, or
+     * {@code null} if there is no such engine.
+     */
+    public static DiagramEngine forName(String name) {
+        for (DiagramEngine e: values()) {
+            if (e.name().equalsIgnoreCase(name)) {
+                return e;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs diagram rendering or page splicing tasks on a bounded pool of
+ * worker threads.
+ * <p>
+ * The DOT sources are still generated on the calling thread because
+ * {@link ClassDocGraph} is not thread-safe.  Only the Graphviz invocation
+ * runs concurrently, and as every task writes its own set of files, the
+ * output does not depend on the completion order.  The tasks are queued
+ * without a bound so that the calling thread can generate all DOT sources
+ * and move on to the standard doclet while the diagrams are rendered.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class DiagramExecutor {
+
+    private final ExecutorService executor;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    DiagramExecutor(int threads) {
+        this("apiviz-render", threads);
+    }
+
+    DiagramExecutor(final String name, int threads) {
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + '-' + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Schedules the specified task.  A failure of a previously scheduled
+     * task is rethrown here so that the caller stops generating diagrams
+     * early.
+     */
+    void execute(final Callable<?> task) throws IOException {
+        rethrowFailure();
+
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    if (failure.get() == null) {
+                        task.call();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until all scheduled tasks are finished and rethrows the first
+     * failure, if any.
+     */
+    void await() throws IOException {
+        executor.shutdown();
+        for (;;) {
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                break;
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+        rethrowFailure();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void rethrowFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t == null) {
+            return;
+        }
+
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Remembers the fingerprint of every diagram inserted into the pages of an
+ * output directory, so that the next javadoc run into the same directory
+ * renders only the diagrams whose input has changed.  The fingerprint of a
+ * diagram is the hash of its Graphviz source, which already encodes the
+ * nodes and edges selected for it and their labels, tags and colors, and
+ * of the renderer, so that switching between the built-in engine and
+ * Graphviz, or upgrading Graphviz, renders every diagram again.  The
+ * image of an unchanged diagram is left where it is, and the text to insert
+ * into its page is kept in the <tt>.apiviz</tt> directory along with the
+ * manifest.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class DiagramManifest {
+
+    private static final String DIRECTORY_NAME = ".apiviz";
+    private static final String MANIFEST_NAME = "manifest.properties";
+    private static final String MAP_SUFFIX = ".map";
+    private static final String SVG_SUFFIX = ".svg";
+
+    private final File outputDirectory;
+    private final File directory;
+    private final DiagramFormat format;
+    private final String renderer;
+    private final String textSuffix;
+    private final Properties oldFingerprints = new Properties();
+    private final Properties newFingerprints = new Properties();
+
+    /**
+     * @param renderer identifies what renders the diagrams, for example the
+     *                 version reported by Graphviz
+     */
+    DiagramManifest(File outputDirectory, DiagramFormat format, String renderer) {
+        this.outputDirectory = outputDirectory;
+        this.format = format;
+        this.renderer = renderer;
+        directory = new File(outputDirectory, DIRECTORY_NAME);
+        textSuffix = format == DiagramFormat.SVG? SVG_SUFFIX : MAP_SUFFIX;
+
+        File file = new File(directory, MANIFEST_NAME);
+        if (file.isFile()) {
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    oldFingerprints.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // Render everything again.
+                oldFingerprints.clear();
+            }
+        }
+    }
+
+    private String fingerprint(Diagram diagram) {
+        return RenderCache.key(format.name() + '\n' + renderer + '\n' + diagram.getSource());
+    }
+
+    /**
+     * Returns the text of the specified diagram inserted by the previous
+     * run, or {@code null} if the diagram has changed since then or its
+     * image is gone.
+     */
+    String restore(Diagram diagram) {
+        String fingerprint = fingerprint(diagram);
+        if (!fingerprint.equals(oldFingerprints.getProperty(diagram.getFilename()))) {
+            return null;
+        }
+        if (format == DiagramFormat.PNG && !diagram.getImageFile(outputDirectory).isFile()) {
+            return null;
+        }
+
+        File textFile = new File(directory, fingerprint + textSuffix);
+        try {
+            return FileUtil.readFile(textFile);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Remembers the text inserted into the page of the specified diagram.
+     */
+    void record(Diagram diagram, String text) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Failed to create a directory: " + directory);
+        }
+
+        String fingerprint = fingerprint(diagram);
+        File textFile = new File(directory, fingerprint + textSuffix);
+        if (!textFile.isFile()) {
+            FileUtil.writeFile(textFile, text);
+        }
+        newFingerprints.setProperty(diagram.getFilename(), fingerprint);
+    }
+
+    /**
+     * Replaces the manifest of the previous run with the recorded diagrams,
+     * and deletes the texts of the diagrams that no longer exist.
+     */
+    void save() throws IOException {
+        if (!directory.isDirectory()) {
+            return;
+        }
+
+        File tmp = File.createTempFile("manifest", ".tmp", directory);
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                newFingerprints.store(out, "Diagrams generated by APIviz");
+            } finally {
+                out.close();
+            }
+            Files.move(
+                    tmp.toPath(), new File(directory, MANIFEST_NAME).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+
+        Set<String> names = new HashSet<String>();
+        for (Object fingerprint: newFingerprints.values()) {
+            names.add(fingerprint + textSuffix);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f: files) {
+                String name = f.getName();
+                if ((name.endsWith(MAP_SUFFIX) || name.endsWith(SVG_SUFFIX)) && !names.contains(name)) {
+                    f.delete();
+                }
+            }
+        }
+    }
+}
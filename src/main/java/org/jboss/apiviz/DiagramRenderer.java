@@ -0,0 +1,810 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import com.sun.javadoc.DocErrorReporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.jboss.apiviz.Constant.*;
+
+/**
+ * Renders the generated diagrams and inserts them into the HTML pages
+ * produced by the standard doclet.  Diagrams are sorted by their
+ * {@linkplain Diagram#getCost() estimated cost} in descending order and
+ * grouped into batches of the configured size, and each batch is rendered
+ * by a single Graphviz process on the {@link DiagramExecutor}.  If a {@link RenderCache} is
+ * given, Graphviz is invoked only for the diagrams not found in it.
+ * If a {@link DiagramManifest} is given, the diagrams that have not
+ * changed since the previous run into the same output directory are not
+ * rendered at all; their images are left in place and only their pages
+ * are modified.  If a {@link RenderClient} is given, the diagrams are rendered by the
+ * {@link RenderDaemon} instead of a local Graphviz process, unless the
+ * daemon is not running.  If a {@link PngOptimizer} is given, the worker re-encodes every image
+ * it has rendered before it is stored in the cache.
+ * Depending on the {@link DiagramFormat}, a diagram is inserted either as
+ * a PNG image with an image map or as an inline SVG document.  With the
+ * {@link DiagramEngine#BUILTIN built-in engine}, the diagrams are laid out
+ * by {@link LayeredLayout} in the worker threads instead of Graphviz.
+ * <p>
+ * If a timeout is given, a Graphviz process that does not finish in time
+ * is killed, and its diagrams are rendered once more one by one.  A
+ * diagram that times out on its own is rendered with
+ * {@linkplain Diagram#degrade() cheaper layout settings}, and skipped if
+ * even that times out.
+ * <p>
+ * The warnings Graphviz writes to its error output are collected per
+ * process and reported together with the diagram they belong to, its
+ * node count and the time it took to render.  If warnings are fatal, they
+ * are reported as errors and {@link #finish()} fails before any page is
+ * modified.
+ * <p>
+ * Rendering starts as soon as a diagram is scheduled, which is usually
+ * before the standard doclet has generated the pages.  The rendered images
+ * and texts are therefore kept aside, in a temporary directory and in
+ * memory respectively, until {@link #finish()} inserts them into the pages.
+ * The pages are modified in a separate pass, on a pool of its own, once
+ * every diagram has been rendered successfully.
+ * <p>
+ * With the {@link DiagramEngine#DEFERRED deferred engine}, nothing is
+ * rendered; the source of each diagram is written next to its page and a
+ * placeholder is inserted into the page instead.  When
+ * {@link DeferredRenderer} renders the sources later, the rendered diagram
+ * replaces the placeholder.
+ * <p>
+ * If sharing is enabled, diagrams that differ only in their links are
+ * rendered only once.  The other pages get a hard link to the same image,
+ * or a copy if the file system does not support hard links, and an image
+ * map with their own links.  Such diagrams are rare within a single run,
+ * because the labels are part of the image, so the comparison is not
+ * made unless it is asked for.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ * @author Trustin Lee (tlee@redhat.com)
+ *
+ */
+class DiagramRenderer {
+
+    private static final Pattern INSERTION_POINT_PATTERN = Pattern.compile(
+            "((<\\/PRE>)(?=\\s*(<P>|<div[^>]*block))|(?=<TABLE BORDER=\"1\")|(<div[^>]*contentContainer[^>]*>))",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final String PLACEHOLDER_PREFIX = "<!-- APIviz diagram: ";
+
+    private static final HtmlSplicer SPLICER = new HtmlSplicer(INSERTION_POINT_PATTERN, PLACEHOLDER_PREFIX);
+
+    private static final Pattern LINE_NUMBER_PATTERN = Pattern.compile(
+            "\\bline (\\d+)", Pattern.CASE_INSENSITIVE);
+
+    private final DocErrorReporter reporter;
+    private final File outputDirectory;
+    private final int batchSize;
+    private final DiagramEngine engine;
+    private final DiagramFormat format;
+    private final long timeout;
+    private final RenderCache cache;
+    private final DiagramManifest manifest;
+    private volatile RenderClient client;
+    private final PngOptimizer optimizer;
+    private final boolean warningsFatal;
+    private final boolean shareLayouts;
+    private final AtomicInteger fatalWarnings = new AtomicInteger();
+    private final DiagramExecutor executor;
+    private final int spliceThreads;
+    // The rendered images are kept here until the pages are generated.
+    private final File imageDirectory;
+    private final List<Diagram> diagrams = new ArrayList<Diagram>();
+    // The diagrams that are not rendered and the diagrams they share the
+    // rendered image with, and the links to replace in the shared text.
+    private final Map<Diagram, Diagram> originals = new HashMap<Diagram, Diagram>();
+    private final Map<Diagram, Map<String, String>> links = new HashMap<Diagram, Map<String, String>>();
+    private final Map<Diagram, String> texts = new ConcurrentHashMap<Diagram, String>();
+    private final Set<Diagram> degraded =
+        Collections.newSetFromMap(new ConcurrentHashMap<Diagram, Boolean>());
+    // The diagrams whose images are still in the output directory
+    private final Set<Diagram> unchanged = new HashSet<Diagram>();
+    // The diagrams that may only replace the placeholders of the deferred
+    // engine, and the filenames of those that did
+    private final Set<Diagram> deferred = new HashSet<Diagram>();
+    private final Set<String> replaced =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    DiagramRenderer(
+            DocErrorReporter reporter, File outputDirectory,
+            int threads, int spliceThreads, int batchSize,
+            DiagramEngine engine, DiagramFormat format, long timeout,
+            RenderCache cache, DiagramManifest manifest,
+            RenderClient client, PngOptimizer optimizer,
+            boolean warningsFatal, boolean shareLayouts) throws IOException {
+        this.reporter = reporter;
+        this.outputDirectory = outputDirectory;
+        this.batchSize = batchSize;
+        this.engine = engine;
+        this.format = format;
+        this.timeout = timeout;
+        // The cache holds the layouts of Graphviz only.
+        this.cache = engine == DiagramEngine.BUILTIN? null : cache;
+        this.manifest = manifest;
+        this.client = client;
+        this.optimizer = optimizer;
+        this.warningsFatal = warningsFatal;
+        this.shareLayouts = shareLayouts;
+        if (format == DiagramFormat.PNG && engine != DiagramEngine.DEFERRED) {
+            imageDirectory = Files.createTempDirectory("apiviz").toFile();
+        } else {
+            imageDirectory = null;
+        }
+        executor = new DiagramExecutor(threads);
+        this.spliceThreads = spliceThreads;
+    }
+
+    /**
+     * Adds the specified diagram to the diagrams to render.  The page does
+     * not need to exist yet.
+     *
+     * @param filename the path of the page relative to the output directory,
+     *                 without the extension
+     * @param source   the Graphviz source of the diagram
+     */
+    void render(String filename, String source) {
+        // TODO - it would be nice to have a debug flag that would spit out the graphviz source as well
+        //System.out.println(source);
+
+        diagrams.add(new Diagram(filename, source));
+    }
+
+    /**
+     * Adds the specified diagram, which was left behind by the deferred
+     * engine, to the diagrams to render.  Unlike {@link #render(String, String)},
+     * the diagram is inserted only in place of the placeholder in its page.
+     *
+     * @see #isReplaced(String)
+     */
+    void renderDeferred(String filename, String source) {
+        Diagram d = new Diagram(filename, source);
+        diagrams.add(d);
+        deferred.add(d);
+    }
+
+    /**
+     * Returns {@code true} if the specified diagram, added with
+     * {@link #renderDeferred(String, String)}, replaced the placeholder in
+     * its page.
+     */
+    boolean isReplaced(String filename) {
+        return replaced.contains(filename);
+    }
+
+    /**
+     * Starts rendering the added diagrams, the most expensive ones first, so
+     * that no worker is left with a large diagram while the others are
+     * idle.  If sharing is enabled, only the first one of the diagrams that
+     * look the same is rendered.
+     */
+    void start() throws IOException {
+        if (engine == DiagramEngine.DEFERRED) {
+            return;
+        }
+
+        List<Diagram> queue = new ArrayList<Diagram>();
+        Map<String, List<Diagram>> layouts = new HashMap<String, List<Diagram>>();
+        for (Diagram d: diagrams) {
+            if (manifest != null) {
+                String text = manifest.restore(d);
+                if (text != null) {
+                    texts.put(d, text);
+                    unchanged.add(d);
+                    continue;
+                }
+            }
+            if (!shareLayouts) {
+                queue.add(d);
+                continue;
+            }
+
+            // The node identifiers appear in SVG documents.
+            String layoutSource = d.getLayoutSource(format == DiagramFormat.PNG);
+            List<Diagram> candidates = layouts.get(layoutSource);
+            if (candidates == null) {
+                candidates = new ArrayList<Diagram>(1);
+                layouts.put(layoutSource, candidates);
+            }
+
+            boolean shared = false;
+            for (Diagram c: candidates) {
+                Map<String, String> links = d.mapLinks(c);
+                if (links != null) {
+                    originals.put(d, c);
+                    this.links.put(d, links);
+                    shared = true;
+                    break;
+                }
+            }
+            if (!shared) {
+                candidates.add(d);
+                queue.add(d);
+            }
+        }
+        if (!originals.isEmpty()) {
+            reporter.printNotice(
+                    "Sharing " + originals.size() + " diagram(s) with identical layouts");
+        }
+        if (!unchanged.isEmpty()) {
+            reporter.printNotice(
+                    "Reusing " + unchanged.size() + " unchanged diagram(s)");
+        }
+
+        // Stable; the diagrams of the same cost keep the javadoc order.
+        Collections.sort(queue, new Comparator<Diagram>() {
+            public int compare(Diagram a, Diagram b) {
+                long diff = b.getCost() - a.getCost();
+                return diff < 0? -1 : diff > 0? 1 : 0;
+            }
+        });
+
+        List<Diagram> batch = new ArrayList<Diagram>();
+        for (Diagram d: queue) {
+            batch.add(d);
+            if (batch.size() >= batchSize) {
+                submit(batch);
+                batch = new ArrayList<Diagram>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            submit(batch);
+        }
+    }
+
+    /**
+     * Waits until all diagrams are rendered, and inserts them into their
+     * pages.  The pages must have been generated by then.
+     */
+    void finish() throws IOException {
+        // The diagrams to insert and the texts to insert them as
+        Map<Diagram, String> pages = new LinkedHashMap<Diagram, String>();
+
+        // Resolve the pages while the diagrams are still being rendered.
+        Map<Diagram, String> targets = locateAll();
+
+        if (engine == DiagramEngine.DEFERRED) {
+            for (Diagram d: diagrams) {
+                String target = targets.get(d);
+                if (target != null) {
+                    FileUtil.writeFile(
+                            new File(outputDirectory, target + Diagram.SOURCE_SUFFIX),
+                            d.getSource().getBytes("UTF-8"));
+                    pages.put(d, null);
+                }
+            }
+            splice(pages, targets);
+            return;
+        }
+
+        executor.await();
+        if (fatalWarnings.get() > 0) {
+            throw new IllegalStateException(
+                    "Graphviz reported " + fatalWarnings.get() + " warning(s).");
+        }
+
+        // The images moved into the output directory
+        Map<Diagram, File> images = new HashMap<Diagram, File>();
+        Map<Diagram, String> records = new LinkedHashMap<Diagram, String>();
+        for (Diagram d: diagrams) {
+            Diagram original = originals.get(d);
+            if (original == null) {
+                original = d;
+            }
+
+            String text = texts.get(original);
+            if (text == null) {
+                // Skipped
+                continue;
+            }
+            if (original != d) {
+                text = Diagram.replaceLinks(text, links.get(d));
+            }
+
+            String target = targets.get(d);
+            if (target == null) {
+                continue;
+            }
+
+            // The image of a deferred diagram is placed only once its
+            // placeholder has been replaced.
+            if (imageDirectory != null && !unchanged.contains(d) && !deferred.contains(d)) {
+                File image = new File(outputDirectory, target + ".png");
+                if (original == d) {
+                    Files.move(
+                            d.getImageFile(imageDirectory).toPath(), image.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                    images.put(d, image);
+                } else {
+                    File sharedImage = images.get(original);
+                    if (sharedImage == null) {
+                        // The page of the original diagram does not exist.
+                        sharedImage = original.getImageFile(imageDirectory);
+                    }
+                    link(sharedImage, image);
+                }
+            }
+            pages.put(d, text);
+            if (!degraded.contains(original)) {
+                records.put(d, text);
+            }
+        }
+
+        splice(pages, targets);
+        for (Diagram d: deferred) {
+            // The image of an unchanged diagram is already in place.
+            if (imageDirectory != null && !unchanged.contains(d) &&
+                pages.containsKey(d) && replaced.contains(d.getFilename())) {
+                Diagram original = originals.get(d);
+                if (original == null) {
+                    original = d;
+                }
+                link(original.getImageFile(imageDirectory),
+                     new File(outputDirectory, targets.get(d) + ".png"));
+            }
+        }
+
+        if (manifest != null) {
+            for (Map.Entry<Diagram, String> e: records.entrySet()) {
+                Diagram d = e.getKey();
+                if (deferred.contains(d) && !replaced.contains(d.getFilename())) {
+                    continue;
+                }
+                manifest.record(d, e.getValue());
+            }
+            manifest.save();
+        }
+
+        if (optimizer != null && optimizer.getOriginalSize() > 0) {
+            reporter.printNotice(
+                    "PNG optimization: " + optimizer.getOriginalSize() + " byte(s) -> " +
+                    optimizer.getOptimizedSize() + " byte(s)");
+        }
+
+        if (cache != null) {
+            cache.evict();
+            reporter.printNotice(
+                    "Diagram cache: " + cache.getHits() + " hit(s), " +
+                    cache.getMisses() + " miss(es)");
+        }
+    }
+
+    /**
+     * Inserts the specified texts into their pages concurrently.
+     *
+     * @param pages   the texts, or {@code null} for placeholders, keyed by
+     *                the diagrams
+     * @param targets the filenames of the pages, keyed by the diagrams
+     */
+    private void splice(Map<Diagram, String> pages, final Map<Diagram, String> targets) throws IOException {
+        DiagramExecutor spliceExecutor = new DiagramExecutor("apiviz-splice", spliceThreads);
+        try {
+            for (final Map.Entry<Diagram, String> e: pages.entrySet()) {
+                spliceExecutor.execute(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        instrument(e.getKey(), targets.get(e.getKey()), e.getValue());
+                        return null;
+                    }
+                });
+            }
+            spliceExecutor.await();
+        } finally {
+            spliceExecutor.shutdown();
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+        if (imageDirectory != null) {
+            FileUtil.delete(imageDirectory);
+        }
+    }
+
+    /**
+     * Creates a hard link to the specified image, or copies it if the file
+     * system does not support hard links.
+     */
+    private static void link(File image, File link) throws IOException {
+        Files.deleteIfExists(link.toPath());
+        try {
+            Files.createLink(link.toPath(), image.toPath());
+            return;
+        } catch (UnsupportedOperationException e) {
+            // Fall through
+        } catch (IOException e) {
+            // Fall through
+        }
+        Files.copy(image.toPath(), link.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Returns the filenames of the pages the diagrams belong to, keyed by
+     * the diagrams.  The output directory is scanned only once, and the
+     * diagrams whose pages are missing are reported and left out.
+     */
+    private Map<Diagram, String> locateAll() {
+        Set<String> index = new HashSet<String>();
+        indexPages(outputDirectory, "", index);
+
+        Map<Diagram, String> targets = new HashMap<Diagram, String>();
+        for (Diagram d: diagrams) {
+            String target = locate(d, index);
+            if (target != null) {
+                targets.put(d, target);
+            } else {
+                reporter.printWarning(
+                        "No page to insert a diagram into: " + d.getFilename() + ".html");
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Adds the filenames of the pages in the specified directory and its
+     * subdirectories, relative to the output directory and without the
+     * extension, to the specified index.
+     */
+    private static void indexPages(File directory, String prefix, Set<String> index) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f: files) {
+            String name = f.getName();
+            if (name.endsWith(".html")) {
+                index.add(prefix + name.substring(0, name.length() - 5));
+            } else if (!name.startsWith(".") && f.isDirectory()) {
+                // Skip the state of APIviz itself.
+                indexPages(f, prefix + name + File.separatorChar, index);
+            }
+        }
+    }
+
+    /**
+     * Returns the filename of the page the specified diagram belongs to,
+     * without the extension, or {@code null} if there is no such page.
+     */
+    private static String locate(Diagram diagram, Set<String> index) {
+        String filename = diagram.getFilename();
+        if (!index.contains(filename)) {
+            // Shouldn't reach here anymore.
+            // I'm retaining the code just in case.
+            for (;;) {
+                int idx = filename.lastIndexOf(File.separatorChar);
+                if (idx > 0) {
+                    filename = filename.substring(0, idx) + '.' +
+                               filename.substring(idx + 1);
+                } else {
+                    // Give up (maybe missing)
+                    return null;
+                }
+                if (index.contains(filename)) {
+                    break;
+                }
+            }
+        }
+
+        return filename;
+    }
+
+    private void submit(final List<Diagram> diagrams) throws IOException {
+        executor.execute(new Callable<Void>() {
+            public Void call() throws IOException {
+                renderBatch(diagrams);
+                return null;
+            }
+        });
+    }
+
+    private void renderBatch(List<Diagram> diagrams) throws IOException {
+        for (Diagram d: diagrams) {
+            if (format == DiagramFormat.SVG) {
+                reporter.printNotice("Generating " + d.getHtmlFile(outputDirectory) + " (SVG)...");
+            } else {
+                reporter.printNotice("Generating " + d.getImageFile(outputDirectory) + "...");
+            }
+        }
+
+        if (imageDirectory != null) {
+            for (Diagram d: diagrams) {
+                File dir = getImageFile(d).getParentFile();
+                if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                    throw new IOException("Failed to create a directory: " + dir);
+                }
+            }
+        }
+
+        // An image map for PNG, or the whole document for SVG.
+        Map<Diagram, String> texts = new HashMap<Diagram, String>();
+        List<Diagram> misses = diagrams;
+        if (cache != null) {
+            misses = new ArrayList<Diagram>();
+            for (Diagram d: diagrams) {
+                String text = cache.restore(d.getSource(), getImageFile(d));
+                if (text != null) {
+                    texts.put(d, text);
+                } else {
+                    misses.add(d);
+                }
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            List<String> renderedTexts;
+            if (engine == DiagramEngine.BUILTIN) {
+                renderedTexts = new ArrayList<String>(misses.size());
+                for (Diagram d: misses) {
+                    renderedTexts.add(SvgWriter.render(d.getSource()));
+                }
+            } else {
+                renderedTexts = renderWithTimeout(misses, degraded);
+            }
+
+            for (int i = 0; i < misses.size(); i ++) {
+                Diagram d = misses.get(i);
+                texts.put(d, renderedTexts.get(i));
+                if (optimizer != null && imageDirectory != null && renderedTexts.get(i) != null) {
+                    optimizer.optimize(getImageFile(d));
+                }
+                // A timeout depends on the machine; try again next time.
+                if (cache != null && renderedTexts.get(i) != null && !degraded.contains(d)) {
+                    cache.store(d.getSource(), getImageFile(d), renderedTexts.get(i));
+                }
+            }
+        }
+
+        for (Diagram d: diagrams) {
+            String text = texts.get(d);
+            if (text != null) {
+                this.texts.put(d, text);
+            }
+        }
+    }
+
+    /**
+     * Renders the specified diagrams with Graphviz, falling back to the
+     * degraded layout for the diagrams that do not finish in time.
+     *
+     * @param degraded the set to add the degraded diagrams to
+     * @return the rendered texts, or {@code null} for the diagrams that
+     *         were skipped
+     */
+    private List<String> renderWithTimeout(
+            List<Diagram> diagrams, Set<Diagram> degraded) throws IOException {
+        try {
+            return renderWithGraphviz(diagrams, timeout * diagrams.size());
+        } catch (GraphvizTimeoutException e) {
+            if (diagrams.size() > 1) {
+                // Find out which diagrams take too long.
+                List<String> texts = new ArrayList<String>(diagrams.size());
+                for (Diagram d: diagrams) {
+                    texts.addAll(renderWithTimeout(Collections.singletonList(d), degraded));
+                }
+                return texts;
+            }
+        }
+
+        Diagram d = diagrams.get(0);
+        reporter.printWarning(
+                "Graphviz did not finish the diagram of " + d.getHtmlFile(outputDirectory) +
+                " in " + timeout + " ms; retrying with a degraded layout.");
+        degraded.add(d);
+        try {
+            return renderWithGraphviz(Collections.singletonList(d.degrade()), timeout);
+        } catch (GraphvizTimeoutException e) {
+            reporter.printWarning(
+                    "Graphviz did not finish the degraded diagram of " +
+                    d.getHtmlFile(outputDirectory) + " in " + timeout + " ms; skipping.");
+            return Collections.singletonList(null);
+        }
+    }
+
+    private List<String> renderWithGraphviz(List<Diagram> diagrams, long timeout) throws IOException {
+        List<String> diagnostics = new ArrayList<String>();
+        long startTime = System.nanoTime();
+        List<String> texts = null;
+        RenderClient client = this.client;
+        if (client != null) {
+            try {
+                texts = client.render(format, diagrams, imageDirectory, timeout, diagnostics);
+            } catch (ConnectException e) {
+                if (this.client != null) {
+                    this.client = null;
+                    reporter.printWarning(
+                            "Render daemon not available (" + e.getMessage() +
+                            "); rendering with Graphviz.");
+                }
+            } catch (SocketTimeoutException e) {
+                if (this.client != null) {
+                    this.client = null;
+                    reporter.printWarning(
+                            "Render daemon did not respond in time; rendering with Graphviz.");
+                }
+            } catch (GraphvizTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                // The daemon died or failed; Graphviz reports the cause
+                // again if it lies in the diagrams.
+                if (this.client != null) {
+                    this.client = null;
+                    reporter.printWarning(
+                            "Render daemon failed (" +
+                            (e.getMessage() != null? e.getMessage() : e.toString()) +
+                            "); rendering with Graphviz.");
+                }
+            }
+        }
+
+        if (texts != null) {
+            // Rendered by the daemon
+        } else if (format == DiagramFormat.SVG) {
+            texts = Graphviz.writeSvgs(reporter, diagrams, timeout, diagnostics);
+        } else {
+            texts = Graphviz.writeImagesAndMaps(reporter, diagrams, imageDirectory, timeout, diagnostics);
+        }
+        long elapsed = (System.nanoTime() - startTime) / 1000000;
+
+        for (String line: diagnostics) {
+            List<Diagram> culprits = diagrams;
+            if (diagrams.size() > 1) {
+                Diagram d = findByLineNumber(diagrams, line);
+                if (d != null) {
+                    culprits = Collections.singletonList(d);
+                }
+            }
+            report(culprits, elapsed, line);
+        }
+        return texts;
+    }
+
+    /**
+     * Finds the diagram the line number in the specified Graphviz message
+     * refers to, counting the lines of the diagrams in the order they were
+     * written to Graphviz.
+     *
+     * @return the diagram, or {@code null} if the message has no line number
+     */
+    private static Diagram findByLineNumber(List<Diagram> diagrams, String message) {
+        Matcher m = LINE_NUMBER_PATTERN.matcher(message);
+        if (!m.find()) {
+            return null;
+        }
+
+        long lineNumber = Long.parseLong(m.group(1));
+        long lastLine = 0;
+        for (Diagram d: diagrams) {
+            String source = d.getSource();
+            for (int i = source.indexOf('\n'); i >= 0; i = source.indexOf('\n', i + 1)) {
+                lastLine ++;
+            }
+            if (lineNumber <= lastLine) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    private void report(List<Diagram> diagrams, long elapsed, String message) {
+        StringBuilder buf = new StringBuilder();
+        int nodeCount = 0;
+        for (Diagram d: diagrams) {
+            if (buf.length() != 0) {
+                buf.append(", ");
+            }
+            buf.append(d.getHtmlFile(outputDirectory));
+            nodeCount += d.getNodeCount();
+        }
+        buf.append(" (");
+        buf.append(nodeCount);
+        buf.append(" nodes, ");
+        buf.append(elapsed);
+        buf.append(" ms): ");
+        buf.append(message);
+
+        if (warningsFatal) {
+            fatalWarnings.incrementAndGet();
+            reporter.printError(buf.toString());
+        } else {
+            reporter.printWarning(buf.toString());
+        }
+    }
+
+    private File getImageFile(Diagram diagram) {
+        if (imageDirectory == null) {
+            return null;
+        }
+        return diagram.getImageFile(imageDirectory);
+    }
+
+    /**
+     * Inserts the specified rendered diagram into its page, replacing the
+     * placeholder if the page has one.  The page is never read into
+     * memory as a whole; see {@link HtmlSplicer}.
+     *
+     * @param page    the filename of the page, without the extension
+     * @param content the image map or the SVG document, or {@code null} to
+     *                insert a placeholder
+     */
+    private void instrument(Diagram diagram, String page, String content) throws IOException {
+        File htmlFile = new File(outputDirectory, page + ".html");
+
+        String style = "text-align: center;";
+        if (diagram.isSummary()) {
+            style += "margin-bottom: 1em;";
+        }
+
+        String fragment;
+        if (content == null) {
+            fragment =
+                PLACEHOLDER_PREFIX +
+                new File(page + Diagram.SOURCE_SUFFIX).getName() + " -->";
+        } else if (format == DiagramFormat.SVG) {
+            // Drop the XML declaration and the DOCTYPE; the links of an
+            // inline SVG document are relative to the page itself.
+            int svgStart = content.indexOf("<svg");
+            if (svgStart < 0) {
+                throw new IllegalStateException(
+                        "Unexpected Graphviz output for " + htmlFile);
+            }
+            fragment =
+                "<div id=\"apivizContainer\" style=\"" + style + "\">" +
+                content.substring(svgStart).trim() + "</div>";
+        } else {
+            fragment =
+                content +
+                "<div id=\"apivizContainer\" style=\"" + style + "\">" +
+                "<img src=\"" + new File(page + ".png").getName() +
+                        "\" usemap=\"#APIVIZ\" border=\"0\"></div>";
+        }
+
+        if (!deferred.contains(diagram)) {
+            SPLICER.splice(htmlFile, fragment);
+        } else if (SPLICER.replace(htmlFile, fragment)) {
+            replaced.add(diagram.getFilename());
+        } else {
+            reporter.printWarning("No diagram placeholder in " + htmlFile + "; leaving it untouched.");
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import com.sun.javadoc.Doc;
+import com.sun.javadoc.Tag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.jboss.apiviz.Constant.*;
+
+/**
+ * An immutable snapshot of the tags of a package or a class that affect how
+ * it is rendered.  {@link Doc#tags(String)} walks all tags and allocates a
+ * new array on every call, while a node is rendered into many diagrams.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+final class DocTags {
+
+    private final String category;
+    private final String stereotype;
+    private final boolean landmark;
+    private final boolean hidden;
+    private final boolean inherit;
+    private final boolean excludeSubtypes;
+    private final boolean deprecated;
+    private final List<String> excludes;
+
+    DocTags(Doc doc) {
+        String category = null;
+        String stereotype = null;
+        boolean landmark = false;
+        boolean hidden = false;
+        boolean inherit = false;
+        boolean excludeSubtypes = false;
+        boolean deprecated = false;
+        List<String> excludes = new ArrayList<String>();
+
+        Tag[] tags = doc.tags();
+        if (tags != null) {
+            for (Tag t: tags) {
+                String name = t.name();
+                if (TAG_CATEGORY.equals(name)) {
+                    if (category == null) {
+                        category = t.text();
+                    }
+                } else if (TAG_STEREOTYPE.equals(name)) {
+                    if (stereotype == null) {
+                        stereotype = t.text();
+                    }
+                } else if (TAG_LANDMARK.equals(name)) {
+                    landmark = true;
+                } else if (TAG_HIDDEN.equals(name)) {
+                    hidden = true;
+                } else if (TAG_INHERIT.equals(name)) {
+                    inherit = true;
+                } else if (TAG_EXCLUDE_SUBTYPES.equals(name)) {
+                    excludeSubtypes = true;
+                } else if ("@deprecated".equals(name)) {
+                    deprecated = true;
+                } else if (TAG_EXCLUDE.equals(name)) {
+                    excludes.add(t.text());
+                    // An exclude tag without a pattern hides the element itself.
+                    if (t.text() == null || t.text().trim().length() == 0) {
+                        hidden = true;
+                    }
+                }
+            }
+        }
+
+        this.category = category;
+        this.stereotype = stereotype;
+        this.landmark = landmark;
+        this.hidden = hidden;
+        this.inherit = inherit;
+        this.excludeSubtypes = excludeSubtypes;
+        this.deprecated = deprecated;
+        this.excludes = Collections.unmodifiableList(excludes);
+    }
+
+    /**
+     * Returns the text of the first {@link Constant#TAG_CATEGORY} tag, or
+     * {@code null} if there is none.
+     */
+    String getCategory() {
+        return category;
+    }
+
+    /**
+     * Returns the text of the first {@link Constant#TAG_STEREOTYPE} tag, or
+     * {@code null} if there is none.
+     */
+    String getStereotype() {
+        return stereotype;
+    }
+
+    boolean isLandmark() {
+        return landmark;
+    }
+
+    /**
+     * Returns {@code true} if the element has a {@link Constant#TAG_HIDDEN}
+     * tag or a {@link Constant#TAG_EXCLUDE} tag without a pattern.
+     */
+    boolean isHidden() {
+        return hidden;
+    }
+
+    boolean isInherit() {
+        return inherit;
+    }
+
+    boolean isExcludeSubtypes() {
+        return excludeSubtypes;
+    }
+
+    boolean isDeprecated() {
+        return deprecated;
+    }
+
+    /**
+     * Returns the texts of the {@link Constant#TAG_EXCLUDE} tags.
+     */
+    List<String> getExcludes() {
+        return excludes;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The nodes and edges of a diagram, parsed from the subset of the Graphviz
+ * language that {@link ClassDocGraph} generates: graph attributes, default
+ * node and edge attributes, node statements and edge statements.  The
+ * layout fields are filled in by {@link LayeredLayout}.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class DotGraph {
+
+    private final Map<String, String> attributes = new HashMap<String, String>();
+    private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+    private final List<Link> links = new ArrayList<Link>();
+    double width;
+    double height;
+
+    static DotGraph parse(String source) {
+        return new Parser(source).parseGraph();
+    }
+
+    private DotGraph() {
+        super();
+    }
+
+    String getAttribute(String name, String defaultValue) {
+        String value = attributes.get(name);
+        return value != null? value : defaultValue;
+    }
+
+    double getAttribute(String name, double defaultValue) {
+        return toDouble(attributes.get(name), defaultValue);
+    }
+
+    List<Node> getNodes() {
+        return new ArrayList<Node>(nodes.values());
+    }
+
+    List<Link> getLinks() {
+        return links;
+    }
+
+    private Node getNode(String id, Map<String, String> defaults) {
+        Node node = nodes.get(id);
+        if (node == null) {
+            node = new Node(id, defaults);
+            nodes.put(id, node);
+        }
+        return node;
+    }
+
+    static double toDouble(String value, double defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private abstract static class Element {
+        private final Map<String, String> attributes;
+
+        Element(Map<String, String> defaults) {
+            attributes = new HashMap<String, String>(defaults);
+        }
+
+        String getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        double getAttribute(String name, double defaultValue) {
+            return toDouble(attributes.get(name), defaultValue);
+        }
+
+        void setAttributes(Map<String, String> attributes) {
+            this.attributes.putAll(attributes);
+        }
+    }
+
+    static final class Node extends Element {
+        private final String id;
+        // The center and the size of the node, in points.
+        double x;
+        double y;
+        double width;
+        double height;
+
+        Node(String id, Map<String, String> defaults) {
+            super(defaults);
+            this.id = id;
+        }
+
+        String getId() {
+            return id;
+        }
+    }
+
+    static final class Link extends Element {
+        private final Node tail;
+        private final Node head;
+        // The polyline from the tail to the head, in points.
+        double[] xs;
+        double[] ys;
+
+        Link(Node tail, Node head, Map<String, String> defaults) {
+            super(defaults);
+            this.tail = tail;
+            this.head = head;
+        }
+
+        Node getTail() {
+            return tail;
+        }
+
+        Node getHead() {
+            return head;
+        }
+    }
+
+    private static final class Parser {
+        private final String source;
+        private int pos;
+        private final DotGraph graph = new DotGraph();
+        private final Map<String, String> nodeDefaults = new HashMap<String, String>();
+        private final Map<String, String> edgeDefaults = new HashMap<String, String>();
+
+        Parser(String source) {
+            this.source = source;
+        }
+
+        DotGraph parseGraph() {
+            String keyword = next();
+            if ("strict".equals(keyword)) {
+                keyword = next();
+            }
+            if (!"digraph".equals(keyword) && !"graph".equals(keyword)) {
+                throw error("digraph expected");
+            }
+
+            String token = next();
+            if (!"{".equals(token)) {
+                // The name of the graph
+                token = next();
+            }
+            if (!"{".equals(token)) {
+                throw error("'{' expected");
+            }
+
+            for (;;) {
+                token = next();
+                if (token == null) {
+                    throw error("'}' expected");
+                }
+                if ("}".equals(token)) {
+                    return graph;
+                }
+                if (";".equals(token)) {
+                    continue;
+                }
+                parseStatement(token);
+            }
+        }
+
+        private void parseStatement(String id) {
+            String token = peek();
+            if ("=".equals(token)) {
+                next();
+                graph.attributes.put(id, next());
+                return;
+            }
+
+            if ("node".equals(id)) {
+                nodeDefaults.putAll(parseAttributes());
+            } else if ("edge".equals(id)) {
+                edgeDefaults.putAll(parseAttributes());
+            } else if ("graph".equals(id)) {
+                graph.attributes.putAll(parseAttributes());
+            } else if ("->".equals(token) || "--".equals(token)) {
+                List<Link> chain = new ArrayList<Link>();
+                Node tail = graph.getNode(id, nodeDefaults);
+                while ("->".equals(peek()) || "--".equals(peek())) {
+                    next();
+                    Node head = graph.getNode(next(), nodeDefaults);
+                    chain.add(new Link(tail, head, edgeDefaults));
+                    tail = head;
+                }
+
+                Map<String, String> attributes = parseAttributes();
+                for (Link link: chain) {
+                    link.setAttributes(attributes);
+                }
+                graph.links.addAll(chain);
+            } else {
+                graph.getNode(id, nodeDefaults).setAttributes(parseAttributes());
+            }
+        }
+
+        private Map<String, String> parseAttributes() {
+            Map<String, String> attributes = new HashMap<String, String>();
+            if (!"[".equals(peek())) {
+                return attributes;
+            }
+
+            next();
+            for (;;) {
+                String name = next();
+                if (name == null) {
+                    throw error("']' expected");
+                }
+                if ("]".equals(name)) {
+                    return attributes;
+                }
+                if (",".equals(name) || ";".equals(name)) {
+                    continue;
+                }
+                if (!"=".equals(next())) {
+                    throw error("'=' expected after " + name);
+                }
+                attributes.put(name, next());
+            }
+        }
+
+        private String peek() {
+            int oldPos = pos;
+            String token = next();
+            pos = oldPos;
+            return token;
+        }
+
+        private String next() {
+            while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+                pos ++;
+            }
+            if (pos >= source.length()) {
+                return null;
+            }
+
+            char c = source.charAt(pos);
+            if (c == '"') {
+                StringBuilder buf = new StringBuilder();
+                for (pos ++; pos < source.length(); pos ++) {
+                    c = source.charAt(pos);
+                    if (c == '"') {
+                        pos ++;
+                        return buf.toString();
+                    }
+                    if (c == '\\' && pos + 1 < source.length() && source.charAt(pos + 1) == '"') {
+                        c = '"';
+                        pos ++;
+                    }
+                    buf.append(c);
+                }
+                throw error("unterminated string");
+            }
+
+            if (c == '-' && pos + 1 < source.length() &&
+                (source.charAt(pos + 1) == '>' || source.charAt(pos + 1) == '-')) {
+                pos += 2;
+                return source.substring(pos - 2, pos);
+            }
+
+            if (Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-') {
+                int start = pos;
+                while (pos < source.length()) {
+                    c = source.charAt(pos);
+                    if (!Character.isLetterOrDigit(c) && c != '_' && c != '.' && c != '-') {
+                        break;
+                    }
+                    if (c == '-' && pos + 1 < source.length() &&
+                        (source.charAt(pos + 1) == '>' || source.charAt(pos + 1) == '-')) {
+                        break;
+                    }
+                    pos ++;
+                }
+                return source.substring(start, pos);
+            }
+
+            pos ++;
+            return String.valueOf(c);
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(
+                    "Unsupported diagram source at offset " + pos + ": " + message);
+        }
+    }
+}
@@ -45,13 +45,18 @@ public class Edge implements Comparable<Edge> {
     private final int hashCode;
 
     public Edge(EdgeType type, Doc source, Doc target) {
+        this(type, source, target, "", "", "", true);
+    }
+
+    Edge(EdgeType type, Doc source, Doc target,
+         String sourceLabel, String targetLabel, String edgeLabel, boolean oneway) {
         this.type = type;
         this.source = source;
         this.target = target;
-        sourceLabel = "";
-        targetLabel = "";
-        edgeLabel = "";
-        oneway = true;
+        this.sourceLabel = sourceLabel;
+        this.targetLabel = targetLabel;
+        this.edgeLabel = edgeLabel;
+        this.oneway = oneway;
         hashCode = calculateHashCode();
     }
 
@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Matches qualified names against the patterns of the <tt>@apiviz.exclude</tt>
+ * tags of a package or a class.  The patterns are compiled only once, and
+ * the result for each qualified name is remembered, because the same names
+ * are tested for every edge of every diagram.  A name is excluded if any of
+ * the patterns is found in it.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class ExcludeFilter {
+
+    private final List<Pattern> patterns = new ArrayList<Pattern>();
+    private final Map<String, Boolean> results = new HashMap<String, Boolean>();
+
+    /**
+     * Creates a new filter.
+     *
+     * @param expressions the regular expressions; a blank expression, which
+     *                    hides the documented element instead, is ignored
+     */
+    ExcludeFilter(List<String> expressions) {
+        for (String e: expressions) {
+            if (e == null || e.trim().length() == 0) {
+                continue;
+            }
+            patterns.add(Pattern.compile(e.trim()));
+        }
+    }
+
+    boolean matches(String qualifiedName) {
+        if (patterns.isEmpty()) {
+            return false;
+        }
+
+        Boolean result = results.get(qualifiedName);
+        if (result == null) {
+            result = Boolean.FALSE;
+            for (Pattern p: patterns) {
+                if (p.matcher(qualifiedName).find()) {
+                    result = Boolean.TRUE;
+                    break;
+                }
+            }
+            results.put(qualifiedName, result);
+        }
+        return result;
+    }
+}
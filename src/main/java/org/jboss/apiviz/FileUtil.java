@@ -52,9 +52,13 @@ public class FileUtil {
     }
 
     public static void writeFile(File file, String content) throws IOException {
+        writeFile(file, content.getBytes("ISO-8859-1"));
+    }
+
+    public static void writeFile(File file, byte[] content) throws IOException {
         FileOutputStream out = new FileOutputStream(file);
         try {
-            out.write(content.getBytes("ISO-8859-1"));
+            out.write(content);
         } finally {
             try {
                 out.close();
@@ -64,6 +68,20 @@ public class FileUtil {
         }
     }
 
+    /**
+     * Deletes the specified file, or the specified directory and all its
+     * contents.  A failure is ignored.
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File c: children) {
+                delete(c);
+            }
+        }
+        file.delete();
+    }
+
     private FileUtil() {
         // Unused
     }
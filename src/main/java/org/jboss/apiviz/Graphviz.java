@@ -22,9 +22,15 @@
  */
 package org.jboss.apiviz;
 
-import com.sun.javadoc.RootDoc;
+import com.sun.javadoc.DocErrorReporter;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.jboss.apiviz.Constant.*;
 
 /**
  * @author The APIviz Project (apiviz-dev@lists.jboss.org)
@@ -34,26 +40,54 @@ import java.io.*;
 public class Graphviz {
     public static final String GRAPHVIZ_EXECUTABLE_FIRST_LINE_CHECK = "^.*[Gg][Rr][Aa][Pp][Hh][Vv][Ii][Zz].*$";
 
+    private static final byte[] PNG_SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+    private static final String MAP_END = "</map>";
+    private static final String SVG_END = "</svg>";
+
+    private static final OutputReader<String> READ_ALL = new OutputReader<String>() {
+        public String read(DataInputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            byte[] buf = new byte[4096];
+            int length;
+            while ((length = in.read(buf)) >= 0) {
+                out.write(buf, 0, length);
+            }
+            return new String(out.toByteArray(), "ISO-8859-1");
+        }
+    };
+
+    // Guarded by the class lock; diagrams are rendered concurrently.
     private static boolean homeDetermined;
     private static File home;
+    private static volatile String version;
 
-    public static boolean isAvailable(RootDoc root) {
-        String executable = Graphviz.getExecutable(root);
-        File home = Graphviz.getHome(root);
+    public static boolean isAvailable(DocErrorReporter reporter) {
+        String executable = Graphviz.getExecutable(reporter);
+        File home = Graphviz.getHome(reporter);
 
         ProcessBuilder pb = new ProcessBuilder(executable, "-V");
         pb.redirectErrorStream(true);
         if (home != null) {
-            root.printNotice("Graphviz Home: " + home);
+            reporter.printNotice("Graphviz Home: " + home);
             pb.directory(home);
         }
-        root.printNotice("Graphviz Executable: " + executable);
+        reporter.printNotice("Graphviz Executable: " + executable);
+
+        ProbeCache cache = new ProbeCache(executable, home);
+        String cachedVersion = cache.getVersion();
+        if (cachedVersion != null) {
+            reporter.printNotice("Graphviz Version: " + cachedVersion + " (cached)");
+            version = cachedVersion;
+            return true;
+        }
 
         Process p;
         try {
             p = pb.start();
         } catch (IOException e) {
-            root.printWarning(e.getMessage());
+            reporter.printWarning(e.getMessage());
             return false;
         }
 
@@ -66,15 +100,17 @@ public class Graphviz {
             String line = null;
             while((line = in.readLine()) != null) {
                 if (line.matches(GRAPHVIZ_EXECUTABLE_FIRST_LINE_CHECK)) {
-                    root.printNotice("Graphviz Version: " + line);
+                    reporter.printNotice("Graphviz Version: " + line);
+                    cache.setVersion(line);
+                    version = line;
                     return true;
                 } else {
-                    root.printWarning("Unknown Graphviz output: " + line);
+                    reporter.printWarning("Unknown Graphviz output: " + line);
                 }
             }
             return false;
         } catch (IOException e) {
-            root.printWarning("Problem detecting Graphviz: " + e.getMessage());
+            reporter.printWarning("Problem detecting Graphviz: " + e.getMessage());
             return false;
         } finally {
             try {
@@ -100,72 +136,316 @@ public class Graphviz {
         }
     }
 
-    public static void writeImageAndMap(
-            RootDoc root,
+    /**
+     * Returns the version reported by the Graphviz executable found by
+     * {@link #isAvailable(DocErrorReporter)}, or {@code null} if none was
+     * found.
+     */
+    static String getVersion() {
+        return version;
+    }
+
+    /**
+     * Renders the specified diagram into a PNG image and returns its
+     * client-side image map, which Graphviz writes to its standard output.
+     */
+    public static String writeImageAndMap(
+            DocErrorReporter reporter,
             String diagram, File outputDirectory, String filename) throws IOException {
+        return writeImageAndMap(reporter, diagram, outputDirectory, filename, 0, null);
+    }
 
-        File pngFile = new File(outputDirectory, filename + ".png");
-        File mapFile = new File(outputDirectory, filename + ".map");
+    /**
+     * Renders the specified diagram into a PNG image and returns its
+     * client-side image map, killing Graphviz if it does not finish in
+     * time.
+     *
+     * @param timeout     the timeout in milliseconds, or {@code 0} for no
+     *                    timeout
+     * @param diagnostics the list to add the lines of the error output of
+     *                    Graphviz to, or {@code null} to print them to
+     *                    {@link System#err}
+     * @throws GraphvizTimeoutException if Graphviz did not finish in time
+     */
+    public static String writeImageAndMap(
+            DocErrorReporter reporter,
+            String diagram, File outputDirectory, String filename,
+            long timeout, List<String> diagnostics) throws IOException {
 
+        File pngFile = new File(outputDirectory, filename + ".png");
         pngFile.delete();
-        mapFile.delete();
 
-        ProcessBuilder pb = new ProcessBuilder(
-                Graphviz.getExecutable(root),
-                "-Tcmapx", "-o", mapFile.getAbsolutePath(),
+        return run(reporter, diagram, timeout, diagnostics, READ_ALL,
+                "-Tcmapx",
                 "-Tpng",   "-o", pngFile.getAbsolutePath());
-        pb.redirectErrorStream(true);
-        File home = Graphviz.getHome(root);
+    }
+
+    /**
+     * Renders the specified diagrams with a single Graphviz process.
+     * Graphviz writes the image and the map of each graph to its standard
+     * output one after another; the images are split back into the files
+     * {@link #writeImageAndMap(DocErrorReporter, String, File, String)} would have
+     * written.
+     *
+     * @param timeout     the timeout for the whole batch in milliseconds,
+     *                    or {@code 0} for no timeout
+     * @param diagnostics the list to add the lines of the error output of
+     *                    Graphviz to, or {@code null} to print them to
+     *                    {@link System#err}
+     * @return the image maps, in the order of the specified diagrams
+     * @throws GraphvizTimeoutException if Graphviz did not finish in time
+     */
+    public static List<String> writeImagesAndMaps(
+            DocErrorReporter reporter, final List<Diagram> diagrams, final File outputDirectory,
+            long timeout, List<String> diagnostics) throws IOException {
+
+        if (diagrams.size() == 1) {
+            Diagram d = diagrams.get(0);
+            return Collections.singletonList(
+                    writeImageAndMap(reporter, d.getSource(), outputDirectory, d.getFilename(), timeout, diagnostics));
+        }
+
+        return run(reporter, concat(diagrams), timeout, diagnostics, new OutputReader<List<String>>() {
+            public List<String> read(DataInputStream in) throws IOException {
+                List<String> maps = new ArrayList<String>(diagrams.size());
+                for (Diagram d: diagrams) {
+                    byte[] image = readPng(in);
+                    byte[] map = readMap(in);
+                    FileUtil.writeFile(d.getImageFile(outputDirectory), image);
+                    maps.add(new String(map, "ISO-8859-1"));
+                }
+                return maps;
+            }
+        }, "-Tpng", "-Tcmapx");
+    }
+
+    /**
+     * Renders the specified diagram into an SVG document and returns it.
+     */
+    public static String writeSvg(DocErrorReporter reporter, String diagram) throws IOException {
+        return writeSvg(reporter, diagram, 0, null);
+    }
+
+    /**
+     * Renders the specified diagram into an SVG document and returns it,
+     * killing Graphviz if it does not finish in time.
+     *
+     * @param timeout     the timeout in milliseconds, or {@code 0} for no
+     *                    timeout
+     * @param diagnostics the list to add the lines of the error output of
+     *                    Graphviz to, or {@code null} to print them to
+     *                    {@link System#err}
+     * @throws GraphvizTimeoutException if Graphviz did not finish in time
+     */
+    public static String writeSvg(
+            DocErrorReporter reporter, String diagram,
+            long timeout, List<String> diagnostics) throws IOException {
+        return run(reporter, diagram, timeout, diagnostics, READ_ALL, "-Tsvg");
+    }
+
+    /**
+     * Renders the specified diagrams into SVG documents with a single
+     * Graphviz process.
+     *
+     * @param timeout     the timeout for the whole batch in milliseconds,
+     *                    or {@code 0} for no timeout
+     * @param diagnostics the list to add the lines of the error output of
+     *                    Graphviz to, or {@code null} to print them to
+     *                    {@link System#err}
+     * @return the SVG documents, in the order of the specified diagrams
+     * @throws GraphvizTimeoutException if Graphviz did not finish in time
+     */
+    public static List<String> writeSvgs(
+            DocErrorReporter reporter, final List<Diagram> diagrams,
+            long timeout, List<String> diagnostics) throws IOException {
+
+        if (diagrams.size() == 1) {
+            return Collections.singletonList(
+                    writeSvg(reporter, diagrams.get(0).getSource(), timeout, diagnostics));
+        }
+
+        return run(reporter, concat(diagrams), timeout, diagnostics, new OutputReader<List<String>>() {
+            public List<String> read(DataInputStream in) throws IOException {
+                List<String> svgs = new ArrayList<String>(diagrams.size());
+                for (int i = 0; i < diagrams.size(); i ++) {
+                    svgs.add(new String(readSvg(in), "ISO-8859-1"));
+                }
+                return svgs;
+            }
+        }, "-Tsvg");
+    }
+
+    private static String concat(List<Diagram> diagrams) {
+        StringBuilder input = new StringBuilder();
+        for (Diagram d: diagrams) {
+            input.append(d.getSource());
+        }
+        return input.toString();
+    }
+
+    private static <T> T run(
+            DocErrorReporter reporter, String input, long timeout, List<String> diagnostics,
+            OutputReader<T> reader,
+            String... formatArgs) throws IOException {
+
+        List<String> command = new ArrayList<String>();
+        command.add(Graphviz.getExecutable(reporter));
+        command.addAll(Arrays.asList(formatArgs));
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        File home = Graphviz.getHome(reporter);
         if (home != null) {
             pb.directory(home);
         }
 
         Process p = pb.start();
-        BufferedReader in = new BufferedReader(
-                new InputStreamReader(p.getInputStream()));
-        Writer out = new OutputStreamWriter(p.getOutputStream(), "UTF-8");
-        try {
-            out.write(diagram);
-            out.close();
 
-            String line = null;
-            while((line = in.readLine()) != null) {
-                System.err.println(line);
-            }
+        // Graphviz starts writing the output of the first graph before
+        // it reads the next one, so the input is written by its own
+        // thread to avoid a dead lock.
+        ErrorReader errorReader = new ErrorReader(p);
+        InputWriter inputWriter = new InputWriter(p, input);
+        Watchdog watchdog = timeout > 0? new Watchdog(p, timeout) : null;
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(p.getInputStream()));
+        T result = null;
+        IOException failure = null;
+        try {
+            result = reader.read(in);
+        } catch (IOException e) {
+            failure = e;
         } finally {
             try {
-                out.close();
+                in.close();
             } catch (IOException e) {
                 // Shouldn't happen.
             }
+        }
+
+        int exitValue = waitFor(p, errorReader, inputWriter);
+        if (watchdog != null) {
+            watchdog.interrupt();
+            if (watchdog.isTimedOut()) {
+                throw new GraphvizTimeoutException(
+                        "Graphviz did not finish in " + timeout + " ms.");
+            }
+        }
+        List<String> errorLines = errorReader.getLines();
+        if (exitValue != 0) {
+            StringBuilder message = new StringBuilder(
+                    "Graphviz exited with a non-zero return value: " + exitValue);
+            for (String line: errorLines) {
+                message.append(NEWLINE);
+                message.append(line);
+            }
+            throw new IllegalStateException(message.toString());
+        }
+        if (diagnostics != null) {
+            diagnostics.addAll(errorLines);
+        } else {
+            for (String line: errorLines) {
+                System.err.println(line);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
 
+        inputWriter.rethrowFailure();
+        return result;
+    }
+
+    private static int waitFor(Process p, Thread... threads) {
+        for (;;) {
             try {
-                in.close();
-            } catch (IOException e) {
-                // Shouldn't happen.
+                for (Thread t: threads) {
+                    t.join();
+                }
+                return p.waitFor();
+            } catch (InterruptedException e) {
+                // Ignore
             }
+        }
+    }
 
-            for (;;) {
-                try {
-                    int result = p.waitFor();
-                    if (result != 0) {
-                        throw new IllegalStateException("Graphviz exited with a non-zero return value: " + result);
-                    }
+    /**
+     * Reads a single PNG image, which is terminated by its
+     * <tt>IEND</tt> chunk.
+     */
+    static byte[] readPng(DataInputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+        byte[] signature = new byte[PNG_SIGNATURE.length];
+        in.readFully(signature);
+        if (!Arrays.equals(signature, PNG_SIGNATURE)) {
+            throw new IOException("Unexpected Graphviz output; not a PNG image.");
+        }
+        out.write(signature);
+
+        DataOutputStream chunkOut = new DataOutputStream(out);
+        for (;;) {
+            int length = in.readInt();
+            byte[] type = new byte[4];
+            in.readFully(type);
+            // Chunk data followed by its CRC.
+            byte[] data = new byte[length + 4];
+            in.readFully(data);
+
+            chunkOut.writeInt(length);
+            chunkOut.write(type);
+            chunkOut.write(data);
+
+            if (type[0] == 'I' && type[1] == 'E' && type[2] == 'N' && type[3] == 'D') {
+                break;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a single client-side image map, which is terminated by the
+     * line that closes its <tt>map</tt> element.
+     */
+    static byte[] readMap(DataInputStream in) throws IOException {
+        return readUntil(in, MAP_END);
+    }
+
+    /**
+     * Reads a single SVG document, which is terminated by the line that
+     * closes its <tt>svg</tt> element.
+     */
+    static byte[] readSvg(DataInputStream in) throws IOException {
+        return readUntil(in, SVG_END);
+    }
+
+    private static byte[] readUntil(DataInputStream in, String lastLine) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        for (;;) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Unexpected end of the Graphviz output.");
+            }
+            line.write(b);
+            if (b == '\n') {
+                out.write(line.toByteArray());
+                boolean end = new String(line.toByteArray(), "ISO-8859-1").trim().equals(lastLine);
+                line.reset();
+                if (end) {
                     break;
-                } catch (InterruptedException e) {
-                    // Ignore
                 }
             }
         }
+        return out.toByteArray();
     }
 
-    private static String getExecutable(RootDoc root) {
+    private static String getExecutable(DocErrorReporter reporter) {
         String command = "dot";
 
         try {
             String osName = System.getProperty("os.name");
             if (osName != null && osName.indexOf("Windows") >= 0) {
-                File path = Graphviz.getHome(root);
+                File path = Graphviz.getHome(reporter);
                 if (path != null) {
                     command = path.getAbsolutePath() + File.separator
                             + "dot.exe";
@@ -179,7 +459,7 @@ public class Graphviz {
         return command;
     }
 
-    private static File getHome(RootDoc root) {
+    private static synchronized File getHome(DocErrorReporter reporter) {
         if (homeDetermined) {
             return home;
         }
@@ -188,27 +468,27 @@ public class Graphviz {
         try {
             String graphvizHome = System.getProperty("graphviz.home");
             if (graphvizHome != null) {
-                root.printNotice(
+                reporter.printNotice(
                         "Using the 'graphviz.home' system property: " +
                         graphvizHome);
             } else {
-                root.printNotice(
+                reporter.printNotice(
                         "The 'graphviz.home' system property was not specified.");
 
                 graphvizHome = System.getenv("GRAPHVIZ_HOME");
                 if (graphvizHome != null) {
-                    root.printNotice(
+                    reporter.printNotice(
                             "Using the 'GRAPHVIZ_HOME' environment variable: " +
                             graphvizHome);
                 } else {
-                    root.printNotice(
+                    reporter.printNotice(
                             "The 'GRAPHVIZ_HOME' environment variable was not specified.");
                 }
             }
             if (graphvizHome != null) {
                 graphvizDir = new File(graphvizHome);
                 if (!graphvizDir.exists() || !graphvizDir.isDirectory()) {
-                    root.printWarning(
+                    reporter.printWarning(
                             "The specified graphviz home directory does not exist: " +
                             graphvizDir.getPath());
                     graphvizDir = null;
@@ -216,7 +496,7 @@ public class Graphviz {
             }
 
             if (graphvizDir == null) {
-                root.printNotice(
+                reporter.printNotice(
                         "System path will be used as graphviz home directory was not specified.");
             }
         } catch (Exception e) {
@@ -229,4 +509,132 @@ public class Graphviz {
     private Graphviz() {
         // Unused
     }
+
+    private interface OutputReader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Reads the error output of a Graphviz process, so that the process
+     * never blocks on a full pipe, and keeps it until the process exits.
+     */
+    private static final class ErrorReader extends Thread {
+        private final Process p;
+        private final List<String> lines = new ArrayList<String>();
+
+        ErrorReader(Process p) {
+            super("apiviz-dot-error");
+            this.p = p;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            BufferedReader err = new BufferedReader(
+                    new InputStreamReader(p.getErrorStream()));
+            try {
+                String line;
+                while((line = err.readLine()) != null) {
+                    if (line.trim().length() != 0) {
+                        lines.add(line);
+                    }
+                }
+            } catch (IOException e) {
+                // Ignore
+            } finally {
+                try {
+                    err.close();
+                } catch (IOException e) {
+                    // Shouldn't happen.
+                }
+            }
+        }
+
+        /**
+         * Returns the lines read, which is safe once this thread has been
+         * joined.
+         */
+        List<String> getLines() {
+            return lines;
+        }
+    }
+
+    /**
+     * Kills a Graphviz process that does not finish in time.
+     */
+    private static final class Watchdog extends Thread {
+        private final Process p;
+        private final long timeout;
+        private volatile boolean timedOut;
+
+        Watchdog(Process p, long timeout) {
+            super("apiviz-dot-watchdog");
+            this.p = p;
+            this.timeout = timeout;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(timeout);
+            } catch (InterruptedException e) {
+                // Finished in time.
+                return;
+            }
+
+            timedOut = true;
+            p.destroyForcibly();
+        }
+
+        boolean isTimedOut() {
+            return timedOut;
+        }
+    }
+
+    /**
+     * Writes the Graphviz source to a Graphviz process.
+     */
+    private static final class InputWriter extends Thread {
+        private final Process p;
+        private final String input;
+        private volatile IOException failure;
+
+        InputWriter(Process p, String input) {
+            super("apiviz-dot-input");
+            this.p = p;
+            this.input = input;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            Writer out = null;
+            try {
+                out = new OutputStreamWriter(p.getOutputStream(), "UTF-8");
+                out.write(input);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                try {
+                    if (out != null) {
+                        out.close();
+                    } else {
+                        p.getOutputStream().close();
+                    }
+                } catch (IOException e) {
+                    // Shouldn't happen.
+                }
+            }
+        }
+
+        void rethrowFailure() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
 }
@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.jboss.apiviz.Constant.*;
+
+/**
+ * Inserts a fragment into an HTML page without reading the whole page
+ * into memory.  The page is scanned in chunks for the first match of the
+ * insertion point pattern.  A match, including what the pattern looks
+ * ahead at, is assumed to be shorter than a given maximum length, so only
+ * that many characters at the end of the scanned text are kept for the
+ * next chunk; nothing is kept if the regular expression engine did not
+ * {@linkplain Matcher#hitEnd() hit the end} of the text.  The pattern must
+ * not look behind.  The text before the match is copied as it is scanned,
+ * and the rest is copied once the fragment is written.
+ * The new page is written to a temporary file next to the page, which
+ * then atomically replaces the page, so that a failure leaves the page
+ * untouched and a reader never sees a partially written page.
+ * <p>
+ * If a placeholder comes first, or right after the insertion point, the
+ * fragment replaces the placeholder.  {@link #replace(File, String)} only
+ * modifies a page that has a placeholder.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class HtmlSplicer {
+
+    private static final String CHARSET = "ISO-8859-1";
+    private static final String PLACEHOLDER_END = "-->";
+
+    private final Pattern pattern;
+    private final String placeholder;
+    private final int bufferSize;
+    private final int maxMatchLength;
+
+    /**
+     * @param placeholderPrefix the beginning of a placeholder comment,
+     *                          which ends with <tt>--&gt;</tt>
+     */
+    HtmlSplicer(Pattern insertionPoint, String placeholderPrefix) {
+        this(insertionPoint, placeholderPrefix, 65536, 4096);
+    }
+
+    /**
+     * @param bufferSize     the number of characters to read at a time
+     * @param maxMatchLength the maximum length of a match of the insertion
+     *                       point or of a placeholder, including what the
+     *                       insertion point looks ahead at
+     */
+    HtmlSplicer(Pattern insertionPoint, String placeholderPrefix, int bufferSize, int maxMatchLength) {
+        // The placeholder might have broken the look-ahead of the insertion point.
+        pattern = Pattern.compile(
+                "(" + Pattern.quote(placeholderPrefix) + "[^>]*" + PLACEHOLDER_END + ")|" +
+                "(?:" + insertionPoint.pattern() + ")",
+                insertionPoint.flags());
+        placeholder = NEWLINE + placeholderPrefix;
+        this.bufferSize = bufferSize;
+        this.maxMatchLength = maxMatchLength;
+    }
+
+    /**
+     * Inserts the specified fragment into the specified page, in place of
+     * its placeholder if it has one.
+     */
+    void splice(File file, String fragment) throws IOException {
+        splice(file, fragment, false);
+    }
+
+    /**
+     * Replaces the placeholder in the specified page with the specified
+     * fragment.
+     *
+     * @return {@code false} if the page has no placeholder, in which case
+     *         the page is left untouched
+     */
+    boolean replace(File file, String fragment) throws IOException {
+        return splice(file, fragment, true);
+    }
+
+    private boolean splice(File file, String fragment, boolean placeholderRequired) throws IOException {
+        File tmp = new File(file.getParentFile(), '.' + file.getName() + ".tmp");
+        boolean success = false;
+        Reader in = new InputStreamReader(new FileInputStream(file), CHARSET);
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(tmp), CHARSET);
+            try {
+                success = splice(in, out, fragment, file) || !placeholderRequired;
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+            if (!success) {
+                tmp.delete();
+            }
+        }
+        if (!success) {
+            return false;
+        }
+
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the specified page with the specified fragment inserted.
+     *
+     * @return {@code true} if the fragment replaced a placeholder
+     */
+    boolean splice(Reader in, Writer out, String fragment, File file) throws IOException {
+        char[] buf = new char[bufferSize];
+        StringBuilder window = new StringBuilder(bufferSize + maxMatchLength);
+        boolean eof = false;
+        Matcher m;
+        for (;;) {
+            eof = fill(in, buf, window);
+
+            m = pattern.matcher(window);
+            boolean found = m.find();
+            if (found && (!m.hitEnd() || eof)) {
+                break;
+            }
+            if (eof) {
+                throw new IllegalStateException(
+                        "Failed to find an insertion point: " + file);
+            }
+
+            // More text could still make a match, or a different one, but
+            // only near the end of the window.
+            int keep = m.hitEnd()? maxMatchLength : 0;
+            int flush = Math.max(0, window.length() - keep);
+            if (found) {
+                flush = Math.min(flush, m.start());
+            }
+            out.append(window, 0, flush);
+            window.delete(0, flush);
+        }
+
+        if (m.group(1) != null) {
+            out.append(window, 0, m.start());
+            out.write(fragment);
+            window.delete(0, m.end());
+            copy(in, out, buf, window);
+            return true;
+        }
+
+        out.append(window, 0, m.end());
+        out.write(NEWLINE);
+        out.write(fragment);
+        window.delete(0, m.end());
+
+        // Drop the placeholder the fragment replaces.
+        boolean replaced = false;
+        while (!eof && window.length() < placeholder.length()) {
+            eof = fill(in, buf, window);
+        }
+        if (window.length() >= placeholder.length() &&
+            window.substring(0, placeholder.length()).equals(placeholder)) {
+            int placeholderEnd;
+            while ((placeholderEnd = window.indexOf(PLACEHOLDER_END, placeholder.length())) < 0 && !eof) {
+                eof = fill(in, buf, window);
+            }
+            if (placeholderEnd >= 0) {
+                window.delete(0, placeholderEnd + PLACEHOLDER_END.length());
+                replaced = true;
+            }
+        }
+
+        copy(in, out, buf, window);
+        return replaced;
+    }
+
+    private static void copy(Reader in, Writer out, char[] buf, StringBuilder window) throws IOException {
+        out.append(window);
+        int length;
+        while ((length = in.read(buf)) >= 0) {
+            out.write(buf, 0, length);
+        }
+    }
+
+    /**
+     * Appends the next chunk of the specified reader to the window.
+     *
+     * @return {@code true} if the end of the reader has been reached
+     */
+    private static boolean fill(Reader in, char[] buf, StringBuilder window) throws IOException {
+        int length = in.read(buf);
+        if (length < 0) {
+            return true;
+        }
+        window.append(buf, 0, length);
+        return false;
+    }
+}
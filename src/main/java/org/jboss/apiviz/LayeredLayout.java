@@ -0,0 +1,499 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A layered (Sugiyama-style) layout of a {@link DotGraph}, which places the
+ * nodes on ranks from top to bottom, or from left to right if
+ * {@code rankdir=LR}, similar to what the {@code dot} layout of Graphviz
+ * does:
+ * <ol>
+ * <li>Cycles are broken by reversing the back edges of a depth-first
+ *     search.</li>
+ * <li>Each node is assigned to the rank of its longest path from a
+ *     source, and an edge spanning several ranks is split by virtual
+ *     nodes.</li>
+ * <li>The nodes of each rank are ordered by barycenter sweeps, keeping the
+ *     order with the fewest crossings.</li>
+ * <li>Each node is placed as close to the average position of its
+ *     neighbors as the order and the node separation allow.</li>
+ * </ol>
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class LayeredLayout {
+
+    private static final double POINTS_PER_INCH = 72;
+    private static final double MARGIN = 8;
+    private static final double SELF_LOOP_SIZE = 16;
+    private static final int ORDERING_ITERATIONS = 24;
+    private static final int PLACEMENT_ITERATIONS = 8;
+
+    private final DotGraph graph;
+    private final List<DotGraph.Node> nodes;
+    private final List<DotGraph.Link> links;
+    private final boolean leftToRight;
+    private final double rankSep;
+    private final double nodeSep;
+
+    // Indexed by the vertex ordinal; real nodes come before virtual nodes.
+    private final List<Integer> rank = new ArrayList<Integer>();
+    private final List<List<Integer>> above = new ArrayList<List<Integer>>();
+    private final List<List<Integer>> below = new ArrayList<List<Integer>>();
+    private double[] position;
+    private double[] breadth;
+
+    // The vertices of every link from the upper rank to the lower rank.
+    private final List<int[]> chains = new ArrayList<int[]>();
+    private boolean[] reversed;
+    private List<List<Integer>> ranks = new ArrayList<List<Integer>>();
+
+    static void layout(DotGraph graph) {
+        new LayeredLayout(graph).layout();
+    }
+
+    private LayeredLayout(DotGraph graph) {
+        this.graph = graph;
+        nodes = graph.getNodes();
+        links = graph.getLinks();
+        leftToRight = "LR".equalsIgnoreCase(graph.getAttribute("rankdir", "TB"));
+        rankSep = graph.getAttribute("ranksep", 0.5) * POINTS_PER_INCH;
+        nodeSep = graph.getAttribute("nodesep", 0.25) * POINTS_PER_INCH;
+    }
+
+    private void layout() {
+        for (DotGraph.Node n: nodes) {
+            SvgWriter.measure(n);
+        }
+
+        breakCycles();
+        assignRanks();
+        orderRanks();
+        placeVertices();
+    }
+
+    private void breakCycles() {
+        Map<DotGraph.Node, Integer> ordinals = getOrdinals();
+        List<List<Integer>> outgoing = new ArrayList<List<Integer>>();
+        for (int i = 0; i < nodes.size(); i ++) {
+            outgoing.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < links.size(); i ++) {
+            outgoing.get(ordinals.get(links.get(i).getTail())).add(i);
+        }
+
+        reversed = new boolean[links.size()];
+        int[] state = new int[nodes.size()];
+        for (int i = 0; i < nodes.size(); i ++) {
+            if (state[i] == 0) {
+                visit(i, ordinals, outgoing, state);
+            }
+        }
+    }
+
+    private void visit(
+            int v, Map<DotGraph.Node, Integer> ordinals,
+            List<List<Integer>> outgoing, int[] state) {
+        state[v] = 1;
+        for (int l: outgoing.get(v)) {
+            int w = ordinals.get(links.get(l).getHead());
+            if (state[w] == 1) {
+                reversed[l] = true;
+            } else if (state[w] == 0) {
+                visit(w, ordinals, outgoing, state);
+            }
+        }
+        state[v] = 2;
+    }
+
+    private void assignRanks() {
+        Map<DotGraph.Node, Integer> ordinals = getOrdinals();
+        int[] upper = new int[links.size()];
+        int[] lower = new int[links.size()];
+        int[] inDegree = new int[nodes.size()];
+        List<List<Integer>> outgoing = new ArrayList<List<Integer>>();
+        for (int i = 0; i < nodes.size(); i ++) {
+            outgoing.add(new ArrayList<Integer>());
+            rank.add(0);
+            above.add(new ArrayList<Integer>());
+            below.add(new ArrayList<Integer>());
+        }
+
+        for (int i = 0; i < links.size(); i ++) {
+            DotGraph.Link l = links.get(i);
+            int tail = ordinals.get(l.getTail());
+            int head = ordinals.get(l.getHead());
+            upper[i] = reversed[i]? head : tail;
+            lower[i] = reversed[i]? tail : head;
+            if (upper[i] != lower[i]) {
+                outgoing.get(upper[i]).add(i);
+                inDegree[lower[i]] ++;
+            }
+        }
+
+        // The longest path from a source, in topological order.
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int i = 0; i < nodes.size(); i ++) {
+            if (inDegree[i] == 0) {
+                queue.add(i);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int v = queue.removeFirst();
+            for (int l: outgoing.get(v)) {
+                int w = lower[l];
+                rank.set(w, Math.max(rank.get(w), rank.get(v) + 1));
+                if (-- inDegree[w] == 0) {
+                    queue.add(w);
+                }
+            }
+        }
+
+        // Split the links that span more than one rank by virtual nodes.
+        for (int i = 0; i < links.size(); i ++) {
+            if (upper[i] == lower[i]) {
+                chains.add(new int[] { upper[i] });
+                continue;
+            }
+
+            int span = rank.get(lower[i]) - rank.get(upper[i]);
+            int[] chain = new int[span + 1];
+            chain[0] = upper[i];
+            chain[span] = lower[i];
+            for (int j = 1; j < span; j ++) {
+                chain[j] = rank.size();
+                rank.add(rank.get(upper[i]) + j);
+                above.add(new ArrayList<Integer>());
+                below.add(new ArrayList<Integer>());
+            }
+            for (int j = 0; j < span; j ++) {
+                below.get(chain[j]).add(chain[j + 1]);
+                above.get(chain[j + 1]).add(chain[j]);
+            }
+            chains.add(chain);
+        }
+
+        for (int v = 0; v < rank.size(); v ++) {
+            int r = rank.get(v);
+            while (ranks.size() <= r) {
+                ranks.add(new ArrayList<Integer>());
+            }
+            ranks.get(r).add(v);
+        }
+    }
+
+    private void orderRanks() {
+        List<List<Integer>> best = copy(ranks);
+        int bestCrossings = countCrossings();
+        for (int i = 0; i < ORDERING_ITERATIONS && bestCrossings > 0; i ++) {
+            if (i % 2 == 0) {
+                for (int r = 1; r < ranks.size(); r ++) {
+                    sortByBarycenter(ranks.get(r), above, getOrder(r - 1));
+                }
+            } else {
+                for (int r = ranks.size() - 2; r >= 0; r --) {
+                    sortByBarycenter(ranks.get(r), below, getOrder(r + 1));
+                }
+            }
+
+            int crossings = countCrossings();
+            if (crossings < bestCrossings) {
+                best = copy(ranks);
+                bestCrossings = crossings;
+            }
+        }
+        ranks = best;
+    }
+
+    private void sortByBarycenter(
+            List<Integer> vertices, List<List<Integer>> neighbors, Map<Integer, Integer> order) {
+        final double[] keys = new double[rank.size()];
+        for (int i = 0; i < vertices.size(); i ++) {
+            int v = vertices.get(i);
+            List<Integer> n = neighbors.get(v);
+            if (n.isEmpty()) {
+                // Stay where it is.
+                keys[v] = i;
+            } else {
+                double sum = 0;
+                for (int w: n) {
+                    sum += order.get(w);
+                }
+                // Scale to the size of this rank so that the vertices
+                // without a neighbor keep their relative position.
+                keys[v] = sum / n.size() * vertices.size() / Math.max(1, order.size());
+            }
+        }
+
+        // Stable; the vertices with the same key keep their order.
+        Collections.sort(vertices, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(keys[a], keys[b]);
+            }
+        });
+    }
+
+    private int countCrossings() {
+        int crossings = 0;
+        for (int r = 0; r < ranks.size() - 1; r ++) {
+            Map<Integer, Integer> upperOrder = getOrder(r);
+            Map<Integer, Integer> lowerOrder = getOrder(r + 1);
+            List<int[]> segments = new ArrayList<int[]>();
+            for (int v: ranks.get(r)) {
+                for (int w: below.get(v)) {
+                    segments.add(new int[] { upperOrder.get(v), lowerOrder.get(w) });
+                }
+            }
+            for (int i = 0; i < segments.size(); i ++) {
+                int[] a = segments.get(i);
+                for (int j = i + 1; j < segments.size(); j ++) {
+                    int[] b = segments.get(j);
+                    if ((a[0] - b[0]) * (a[1] - b[1]) < 0) {
+                        crossings ++;
+                    }
+                }
+            }
+        }
+        return crossings;
+    }
+
+    private void placeVertices() {
+        int vertexCount = rank.size();
+        position = new double[vertexCount];
+        breadth = new double[vertexCount];
+        double[] depth = new double[ranks.size()];
+        for (int v = 0; v < nodes.size(); v ++) {
+            DotGraph.Node n = nodes.get(v);
+            breadth[v] = leftToRight? n.height : n.width;
+            int r = rank.get(v);
+            depth[r] = Math.max(depth[r], leftToRight? n.width : n.height);
+        }
+
+        for (List<Integer> vertices: ranks) {
+            place(vertices, new double[vertices.size()]);
+        }
+
+        for (int i = 0; i < PLACEMENT_ITERATIONS; i ++) {
+            boolean both = i >= PLACEMENT_ITERATIONS - 2;
+            if (i % 2 == 0) {
+                for (int r = 1; r < ranks.size(); r ++) {
+                    align(ranks.get(r), both);
+                }
+            } else {
+                for (int r = ranks.size() - 2; r >= 0; r --) {
+                    align(ranks.get(r), both);
+                }
+            }
+        }
+
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (int v = 0; v < vertexCount; v ++) {
+            min = Math.min(min, position[v] - breadth[v] / 2);
+            max = Math.max(max, position[v] + breadth[v] / 2);
+        }
+        if (vertexCount == 0) {
+            min = 0;
+        }
+
+        double[] center = new double[ranks.size()];
+        double offset = MARGIN;
+        for (int r = 0; r < ranks.size(); r ++) {
+            center[r] = offset + depth[r] / 2;
+            offset += depth[r] + rankSep;
+        }
+        double totalDepth = ranks.isEmpty()? 2 * MARGIN : offset - rankSep + MARGIN;
+        double totalBreadth = max - min + 2 * MARGIN;
+
+        for (int v = 0; v < nodes.size(); v ++) {
+            DotGraph.Node n = nodes.get(v);
+            double b = position[v] - min + MARGIN;
+            double d = center[rank.get(v)];
+            n.x = leftToRight? d : b;
+            n.y = leftToRight? b : d;
+        }
+
+        double selfLoopSpace = 0;
+        for (int i = 0; i < links.size(); i ++) {
+            DotGraph.Link l = links.get(i);
+            int[] chain = chains.get(i);
+            if (chain.length == 1) {
+                routeSelfLoop(l);
+                selfLoopSpace = SELF_LOOP_SIZE;
+                continue;
+            }
+
+            double[] xs = new double[chain.length];
+            double[] ys = new double[chain.length];
+            for (int j = 0; j < chain.length; j ++) {
+                double b = position[chain[j]] - min + MARGIN;
+                double d = center[rank.get(chain[j])];
+                xs[j] = leftToRight? d : b;
+                ys[j] = leftToRight? b : d;
+            }
+            if (reversed[i]) {
+                reverse(xs);
+                reverse(ys);
+            }
+            clip(l.getTail(), xs, ys, 0, 1);
+            clip(l.getHead(), xs, ys, chain.length - 1, chain.length - 2);
+            l.xs = xs;
+            l.ys = ys;
+        }
+
+        graph.width = (leftToRight? totalDepth : totalBreadth) + selfLoopSpace;
+        graph.height = leftToRight? totalBreadth : totalDepth;
+    }
+
+    private void align(List<Integer> vertices, boolean both) {
+        double[] desired = new double[vertices.size()];
+        for (int i = 0; i < vertices.size(); i ++) {
+            int v = vertices.get(i);
+            List<Integer> neighbors = new ArrayList<Integer>(above.get(v));
+            if (both || neighbors.isEmpty()) {
+                neighbors.addAll(below.get(v));
+            }
+
+            if (neighbors.isEmpty()) {
+                desired[i] = position[v];
+            } else {
+                double sum = 0;
+                for (int w: neighbors) {
+                    sum += position[w];
+                }
+                desired[i] = sum / neighbors.size();
+            }
+        }
+        place(vertices, desired);
+    }
+
+    /**
+     * Places the specified vertices as close to the desired positions as
+     * possible without changing their order or violating the separation,
+     * by solving the equivalent isotonic regression with the pool adjacent
+     * violators algorithm.
+     */
+    private void place(List<Integer> vertices, double[] desired) {
+        int size = vertices.size();
+        double[] offsets = new double[size];
+        for (int i = 1; i < size; i ++) {
+            int prev = vertices.get(i - 1);
+            int v = vertices.get(i);
+            double sep = prev < nodes.size() && v < nodes.size()? nodeSep : nodeSep / 2;
+            offsets[i] = offsets[i - 1] + breadth[prev] / 2 + sep + breadth[v] / 2;
+        }
+
+        // Blocks of the vertices that end up next to each other.
+        double[] sums = new double[size];
+        int[] counts = new int[size];
+        int blocks = 0;
+        for (int i = 0; i < size; i ++) {
+            sums[blocks] = desired[i] - offsets[i];
+            counts[blocks] = 1;
+            blocks ++;
+            while (blocks > 1 &&
+                   sums[blocks - 2] / counts[blocks - 2] > sums[blocks - 1] / counts[blocks - 1]) {
+                sums[blocks - 2] += sums[blocks - 1];
+                counts[blocks - 2] += counts[blocks - 1];
+                blocks --;
+            }
+        }
+
+        int i = 0;
+        for (int b = 0; b < blocks; b ++) {
+            double base = sums[b] / counts[b];
+            for (int j = 0; j < counts[b]; j ++, i ++) {
+                position[vertices.get(i)] = base + offsets[i];
+            }
+        }
+    }
+
+    private void routeSelfLoop(DotGraph.Link l) {
+        DotGraph.Node n = l.getTail();
+        double right = n.x + n.width / 2;
+        double top = n.y - n.height / 4;
+        double bottom = n.y + n.height / 4;
+        l.xs = new double[] { right, right + SELF_LOOP_SIZE, right + SELF_LOOP_SIZE, right };
+        l.ys = new double[] { top, top, bottom, bottom };
+    }
+
+    /**
+     * Moves the specified end of a polyline from the center of its node to
+     * the border of the node, towards the next point.
+     */
+    private static void clip(DotGraph.Node n, double[] xs, double[] ys, int end, int next) {
+        double dx = xs[next] - n.x;
+        double dy = ys[next] - n.y;
+        double scale = Math.min(
+                dx == 0? Double.MAX_VALUE : n.width / 2 / Math.abs(dx),
+                dy == 0? Double.MAX_VALUE : n.height / 2 / Math.abs(dy));
+        if (scale > 1) {
+            scale = 1;
+        }
+        xs[end] = n.x + dx * scale;
+        ys[end] = n.y + dy * scale;
+    }
+
+    private static void reverse(double[] a) {
+        for (int i = 0, j = a.length - 1; i < j; i ++, j --) {
+            double tmp = a[i];
+            a[i] = a[j];
+            a[j] = tmp;
+        }
+    }
+
+    private Map<DotGraph.Node, Integer> getOrdinals() {
+        Map<DotGraph.Node, Integer> ordinals = new IdentityHashMap<DotGraph.Node, Integer>();
+        for (int i = 0; i < nodes.size(); i ++) {
+            ordinals.put(nodes.get(i), i);
+        }
+        return ordinals;
+    }
+
+    private Map<Integer, Integer> getOrder(int r) {
+        Map<Integer, Integer> order = new HashMap<Integer, Integer>();
+        List<Integer> vertices = ranks.get(r);
+        for (int i = 0; i < vertices.size(); i ++) {
+            order.put(vertices.get(i), i);
+        }
+        return order;
+    }
+
+    private static List<List<Integer>> copy(List<List<Integer>> ranks) {
+        List<List<Integer>> copy = new ArrayList<List<Integer>>(ranks.size());
+        for (List<Integer> r: ranks) {
+            copy.add(new ArrayList<Integer>(r));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+/**
+ * The Graphviz layout settings of the diagrams, which trade the number of
+ * edge crossings for the time it takes to lay out a diagram.  The crossing
+ * minimization of {@code dot} is superlinear in the size of a graph, so
+ * the expensive settings that suit a class diagram with a few nodes can
+ * stall a package summary with hundreds of them.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+public enum LayoutProfile {
+    /**
+     * The default crossing minimization of Graphviz without the final
+     * crossing reduction pass.
+     */
+    FAST(1, 30, false),
+    /**
+     * A moderate crossing minimization.
+     */
+    BALANCED(16, 1000, true),
+    /**
+     * The most thorough crossing minimization.
+     */
+    BEST(Integer.MAX_VALUE, 65536, true),
+    /**
+     * {@link #BEST} for small diagrams, {@link #BALANCED} for medium-sized
+     * diagrams and {@link #FAST} for large diagrams.
+     */
+    AUTO(0, 0, false);
+
+    private static final int MAX_BEST_SIZE = 100;
+    private static final int MAX_BALANCED_SIZE = 400;
+
+    private final int maxMclimit;
+    private final int searchSize;
+    private final boolean remincross;
+
+    private LayoutProfile(int maxMclimit, int searchSize, boolean remincross) {
+        this.maxMclimit = maxMclimit;
+        this.searchSize = searchSize;
+        this.remincross = remincross;
+    }
+
+    /**
+     * Returns the profile to use for a diagram with the specified number
+     * of nodes and edges.
+     */
+    LayoutProfile resolve(int nodeCount, int edgeCount) {
+        if (this != AUTO) {
+            return this;
+        }
+
+        int size = nodeCount + edgeCount;
+        if (size <= MAX_BEST_SIZE) {
+            return BEST;
+        }
+        if (size <= MAX_BALANCED_SIZE) {
+            return BALANCED;
+        }
+        return FAST;
+    }
+
+    /**
+     * Returns the {@code mclimit} to use for a diagram whose most thorough
+     * setting is the specified value.
+     */
+    int getMclimit(int bestMclimit) {
+        return Math.min(bestMclimit, maxMclimit);
+    }
+
+    int getSearchSize() {
+        return searchSize;
+    }
+
+    boolean isRemincross() {
+        return remincross;
+    }
+
+    /**
+     * Returns the profile with the specified name, ignoring case, or
+     * {@code null} if there is no such profile.
+     */
+    public static LayoutProfile forName(String name) {
+        for (LayoutProfile p: values()) {
+            if (p.name().equalsIgnoreCase(name)) {
+                return p;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Re-encodes the PNG images rendered by Graphviz without losing a single
+ * pixel.  An image with at most 256 colors, which is typical of a diagram,
+ * is written with a palette of the smallest sufficient bit depth instead
+ * of the true color encoding of Graphviz.  The original image is kept if
+ * the re-encoded one is not smaller.  The total sizes before and after are
+ * accumulated so that they can be reported.  An instance may be shared by
+ * several threads.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class PngOptimizer {
+
+    private static final int MAX_PALETTE_SIZE = 256;
+
+    private final AtomicLong originalSize = new AtomicLong();
+    private final AtomicLong optimizedSize = new AtomicLong();
+
+    long getOriginalSize() {
+        return originalSize.get();
+    }
+
+    long getOptimizedSize() {
+        return optimizedSize.get();
+    }
+
+    void optimize(File file) throws IOException {
+        long oldLength = file.length();
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Not a PNG image: " + file);
+        }
+
+        BufferedImage indexedImage = toIndexedImage(image);
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) oldLength);
+        if (!ImageIO.write(indexedImage != null? indexedImage : image, "png", out)) {
+            throw new IOException("No PNG encoder available.");
+        }
+
+        long newLength = oldLength;
+        if (out.size() < oldLength) {
+            FileUtil.writeFile(file, out.toByteArray());
+            newLength = out.size();
+        }
+        originalSize.addAndGet(oldLength);
+        optimizedSize.addAndGet(newLength);
+    }
+
+    /**
+     * Converts the specified image into an image with a palette.
+     *
+     * @return the converted image, or {@code null} if the image has too
+     *         many colors
+     */
+    static BufferedImage toIndexedImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        Map<Integer, Integer> palette = new HashMap<Integer, Integer>();
+        int[] colors = new int[MAX_PALETTE_SIZE];
+        for (int p: pixels) {
+            if (!palette.containsKey(p)) {
+                if (palette.size() == MAX_PALETTE_SIZE) {
+                    return null;
+                }
+                colors[palette.size()] = p;
+                palette.put(p, palette.size());
+            }
+        }
+
+        int size = palette.size();
+        int bits;
+        if (size <= 2) {
+            bits = 1;
+        } else if (size <= 4) {
+            bits = 2;
+        } else if (size <= 16) {
+            bits = 4;
+        } else {
+            bits = 8;
+        }
+
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        byte[] a = new byte[size];
+        for (int i = 0; i < size; i ++) {
+            a[i] = (byte) (colors[i] >>> 24);
+            r[i] = (byte) (colors[i] >>> 16);
+            g[i] = (byte) (colors[i] >>> 8);
+            b[i] = (byte) colors[i];
+        }
+        IndexColorModel colorModel = new IndexColorModel(bits, size, r, g, b, a);
+
+        BufferedImage indexedImage = new BufferedImage(
+                width, height,
+                bits == 8? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY,
+                colorModel);
+        WritableRaster raster = indexedImage.getRaster();
+        for (int y = 0; y < height; y ++) {
+            for (int x = 0; x < width; x ++) {
+                raster.setSample(x, y, 0, palette.get(pixels[y * width + x]));
+            }
+        }
+        return indexedImage;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Remembers the version of the Graphviz executable that was found by a
+ * previous javadoc run, so that a build which runs javadoc for many modules
+ * spawns <tt>dot -V</tt> only once.  The cache file is keyed by the search
+ * path, the Graphviz home and the environment variables Graphviz depends
+ * on, and an entry is valid only while the resolved executable has the same
+ * size and last modified time.  Only a successful probe is remembered.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class ProbeCache {
+
+    private static final String[] ENVIRONMENT = {
+        "PATH", "GRAPHVIZ_HOME", "GVBINDIR", "LD_LIBRARY_PATH", "DYLD_LIBRARY_PATH"
+    };
+
+    private static final String EXECUTABLE = "executable";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String LENGTH = "length";
+    private static final String HOME = "home";
+    private static final String VERSION = "version";
+
+    private final File file;
+    private final File executable;
+    private final File home;
+
+    ProbeCache(String executable, File home) {
+        this(new File(System.getProperty("java.io.tmpdir")), executable, home);
+    }
+
+    ProbeCache(File directory, String executable, File home) {
+        StringBuilder key = new StringBuilder();
+        key.append(executable).append('\0');
+        key.append(home).append('\0');
+        key.append(System.getProperty("graphviz.home")).append('\0');
+        for (String name: ENVIRONMENT) {
+            key.append(System.getenv(name)).append('\0');
+        }
+
+        file = new File(directory, "apiviz-graphviz-" + RenderCache.key(key.toString()) + ".properties");
+        this.executable = resolve(executable);
+        this.home = home;
+    }
+
+    /**
+     * Returns the version line of the cached Graphviz executable, or
+     * {@code null} if the cache has no valid entry.
+     */
+    String getVersion() {
+        if (executable == null || !file.isFile()) {
+            return null;
+        }
+
+        Properties p = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                p.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        if (!executable.getPath().equals(p.getProperty(EXECUTABLE)) ||
+            !String.valueOf(executable.lastModified()).equals(p.getProperty(LAST_MODIFIED)) ||
+            !String.valueOf(executable.length()).equals(p.getProperty(LENGTH)) ||
+            !String.valueOf(home).equals(p.getProperty(HOME))) {
+            return null;
+        }
+
+        return p.getProperty(VERSION);
+    }
+
+    /**
+     * Remembers the version line of the Graphviz executable.  A failure is
+     * ignored because the cache is merely an optimization.
+     */
+    void setVersion(String version) {
+        if (executable == null) {
+            return;
+        }
+
+        Properties p = new Properties();
+        p.setProperty(EXECUTABLE, executable.getPath());
+        p.setProperty(LAST_MODIFIED, String.valueOf(executable.lastModified()));
+        p.setProperty(LENGTH, String.valueOf(executable.length()));
+        p.setProperty(HOME, String.valueOf(home));
+        p.setProperty(VERSION, version);
+
+        try {
+            // Other javadoc processes might be reading the file.
+            File tmp = File.createTempFile("apiviz-graphviz", ".tmp", file.getParentFile());
+            try {
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    p.store(out, "Graphviz probed by APIviz");
+                } finally {
+                    out.close();
+                }
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            // Probe again next time.
+        }
+    }
+
+    /**
+     * Finds the specified executable the way the operating system would.
+     *
+     * @return the executable, or {@code null} if it was not found
+     */
+    private static File resolve(String executable) {
+        File f = new File(executable);
+        if (f.isAbsolute()) {
+            return f.isFile()? f : null;
+        }
+
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (String dir: path.split(File.pathSeparator)) {
+            if (dir.length() == 0) {
+                continue;
+            }
+            f = new File(dir, executable);
+            if (f.isFile() && f.canExecute()) {
+                return f.getAbsoluteFile();
+            }
+        }
+        return null;
+    }
+}
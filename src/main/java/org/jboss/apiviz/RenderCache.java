@@ -0,0 +1,232 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent cache of rendered diagrams, keyed by the hash of their
+ * Graphviz source and of the renderer, such as the Graphviz version, so
+ * that a diagram laid out by one renderer is never served to another.  An entry consists of the text to insert into a page,
+ * which is either an image map or an SVG document, and the PNG image for
+ * the former.  The last modified time of an entry is updated on every hit
+ * so that the least recently used entries can be evicted when the cache
+ * grows beyond its size limit.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class RenderCache {
+
+    private static final String IMAGE_SUFFIX = ".png";
+    private static final String MAP_SUFFIX = ".map";
+    private static final String SVG_SUFFIX = ".svg";
+
+    private final File directory;
+    private final long maxSize;
+    private final String textSuffix;
+    private final String renderer;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param renderer identifies what renders the diagrams, for example the
+     *                 version reported by Graphviz
+     */
+    RenderCache(File directory, long maxSize, DiagramFormat format, String renderer) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create the cache directory: " + directory);
+        }
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+        textSuffix = format == DiagramFormat.SVG? SVG_SUFFIX : MAP_SUFFIX;
+        this.renderer = renderer;
+    }
+
+    static String key(String source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] hash;
+        try {
+            hash = digest.digest(source.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder buf = new StringBuilder(hash.length * 2);
+        for (byte b: hash) {
+            buf.append(Character.forDigit((b >>> 4) & 0xF, 16));
+            buf.append(Character.forDigit(b & 0xF, 16));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Returns the name of the entry of the specified diagram source.
+     */
+    String getKey(String source) {
+        return key(renderer + '\n' + source);
+    }
+
+    /**
+     * Copies the cached image of the specified diagram source to the
+     * specified file, if any.
+     *
+     * @param imageFile the file to copy the image to, or {@code null} if the
+     *                  diagrams have no separate image
+     * @return the cached text, or {@code null} if the cache had no entry for
+     *         the source
+     */
+    String restore(String source, File imageFile) {
+        String key = getKey(source);
+        File cachedImage = new File(directory, key + IMAGE_SUFFIX);
+        File cachedText = new File(directory, key + textSuffix);
+
+        try {
+            if (cachedText.isFile() && (imageFile == null || cachedImage.isFile())) {
+                String text = FileUtil.readFile(cachedText);
+                long now = System.currentTimeMillis();
+                if (imageFile != null) {
+                    Files.copy(cachedImage.toPath(), imageFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    cachedImage.setLastModified(now);
+                }
+
+                cachedText.setLastModified(now);
+                hits.incrementAndGet();
+                return text;
+            }
+        } catch (IOException e) {
+            // Evicted by another build in the meantime; render it again.
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the rendered image and text of the specified diagram source.
+     *
+     * @param imageFile the rendered image, or {@code null} if the diagrams
+     *                  have no separate image
+     */
+    void store(String source, File imageFile, String text) throws IOException {
+        String key = getKey(source);
+        // Store the image first; an entry is complete once its text exists.
+        File tmp;
+        if (imageFile != null) {
+            tmp = createTempFile(key);
+            try {
+                Files.copy(imageFile.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmp.toPath(), new File(directory, key + IMAGE_SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tmp.delete();
+            }
+        }
+
+        tmp = createTempFile(key);
+        try {
+            FileUtil.writeFile(tmp, text);
+            Files.move(tmp.toPath(), new File(directory, key + textSuffix).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private File createTempFile(String key) throws IOException {
+        return File.createTempFile(key, ".tmp", directory);
+    }
+
+    /**
+     * Deletes the least recently used entries until the total size of the
+     * cache does not exceed its limit.
+     */
+    void evict() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        List<File> entries = new ArrayList<File>();
+        long size = 0;
+        for (File f: files) {
+            if (f.getName().endsWith(MAP_SUFFIX) || f.getName().endsWith(SVG_SUFFIX)) {
+                entries.add(f);
+                size += f.length() + getImageFile(f).length();
+            }
+        }
+
+        if (size <= maxSize) {
+            return;
+        }
+
+        Collections.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0? -1 : diff > 0? 1 : 0;
+            }
+        });
+
+        for (File f: entries) {
+            if (size <= maxSize) {
+                break;
+            }
+
+            File image = getImageFile(f);
+            size -= f.length() + image.length();
+            f.delete();
+            image.delete();
+        }
+    }
+
+    private static File getImageFile(File textFile) {
+        String name = textFile.getName();
+        return new File(
+                textFile.getParentFile(),
+                name.substring(0, name.lastIndexOf('.')) + IMAGE_SUFFIX);
+    }
+
+    int getHits() {
+        return hits.get();
+    }
+
+    int getMisses() {
+        return misses.get();
+    }
+}
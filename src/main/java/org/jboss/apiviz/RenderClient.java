@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.jboss.apiviz.RenderDaemon.*;
+
+/**
+ * Renders diagrams with a {@link RenderDaemon} listening on the loopback
+ * interface.  The results are the same as those of the corresponding
+ * methods of {@link Graphviz}.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class RenderClient {
+
+    // How much longer than Graphviz itself the daemon may take to respond,
+    // e.g. because all its workers are busy with other javadoc runs.
+    private static final int RESPONSE_GRACE_PERIOD = 60000;
+
+    // How long to wait for the daemon if there is no timeout, so that a
+    // daemon which stopped responding does not block the build forever.
+    private static final int DEFAULT_RESPONSE_TIMEOUT = 30 * 60000;
+
+    private final InetSocketAddress address;
+
+    RenderClient(int port) {
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Renders the specified diagrams.
+     *
+     * @param imageDirectory the directory to write the PNG images to, or
+     *                       {@code null} for SVG
+     * @param timeout        the timeout in milliseconds, or {@code 0} for no
+     *                       timeout
+     * @throws java.net.ConnectException       if the daemon is not running
+     * @throws java.net.SocketTimeoutException if the daemon did not respond
+     *                                         in time
+     * @throws IOException                     if the daemon failed
+     * @throws GraphvizTimeoutException        if Graphviz did not finish in time
+     */
+    List<String> render(
+            DiagramFormat format, List<Diagram> diagrams, File imageDirectory,
+            long timeout, List<String> diagnostics) throws IOException {
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(address);
+            if (timeout > 0) {
+                socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeout + RESPONSE_GRACE_PERIOD));
+            } else {
+                socket.setSoTimeout(DEFAULT_RESPONSE_TIMEOUT);
+            }
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(format.name());
+            out.writeLong(timeout);
+            out.writeInt(diagrams.size());
+            for (Diagram d: diagrams) {
+                writeBytes(out, d.getSource().getBytes("UTF-8"));
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            int status = in.readUnsignedByte();
+            if (status == STATUS_TIMEOUT) {
+                throw new GraphvizTimeoutException(readString(in));
+            }
+            if (status != STATUS_OK) {
+                throw new IOException(readString(in));
+            }
+
+            for (int i = in.readInt(); i > 0; i --) {
+                diagnostics.add(readString(in));
+            }
+
+            List<String> texts = new ArrayList<String>(diagrams.size());
+            for (Diagram d: diagrams) {
+                texts.add(new String(readBytes(in), "ISO-8859-1"));
+                if (format == DiagramFormat.PNG) {
+                    FileUtil.writeFile(d.getImageFile(imageDirectory), readBytes(in));
+                }
+            }
+            return texts;
+        } finally {
+            socket.close();
+        }
+    }
+}
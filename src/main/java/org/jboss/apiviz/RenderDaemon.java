@@ -0,0 +1,336 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import com.sun.javadoc.DocErrorReporter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jboss.apiviz.Constant.*;
+
+/**
+ * A long-running process that renders diagrams with Graphviz on behalf of
+ * the javadoc runs of a multi-module build, so that they share one warm
+ * {@link RenderCache} and one bound on the number of concurrent renders.
+ * The daemon still starts a <tt>dot</tt> process for each request, because
+ * <tt>dot</tt> cannot be kept running between graphs; what is saved is the
+ * work the cache avoids and the start-up of a JVM per module.  A javadoc
+ * run uses the daemon if it is given the port with the
+ * <tt>-diagramdaemon</tt> option.  The daemon accepts connections on the
+ * loopback interface only.
+ * <p>
+ * Start the daemon with:
+ * <pre>
+ * java -cp apiviz.jar:tools.jar org.jboss.apiviz.RenderDaemon \
+ *      [-port &lt;port&gt;] [-diagramthreads &lt;n&gt;] \
+ *      [-diagramcache &lt;directory&gt; [-diagramcachesize &lt;megabytes&gt;]] [-quiet]
+ * </pre>
+ * <p>
+ * A connection carries a single request, which consists of the format
+ * name, the timeout in milliseconds, the number of diagrams and their
+ * sources.  The response starts with a status byte.  A successful response
+ * carries the error output of Graphviz and, for each diagram, its text and,
+ * for PNG, its image.  A failed response carries the error message.  Every
+ * text is sent with its length, so a long error output of Graphviz is
+ * reported as a whole.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+public class RenderDaemon {
+
+    static final int DEFAULT_PORT = 17637;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_TIMEOUT = 1;
+    static final int STATUS_ERROR = 2;
+
+    // The limits of a request or a response; anything larger is malformed.
+    static final int MAX_DIAGRAMS = 65536;
+    static final int MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+
+    private static final String OPTION_PORT = "-port";
+    private static final String OPTION_QUIET = "-quiet";
+    // Evicting lists the whole cache directory, so it is not done on every store.
+    private static final int EVICTION_INTERVAL = 64;
+
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File cacheDirectory = null;
+        long cacheSize = 256L * 1024 * 1024;
+        boolean quiet = false;
+        try {
+            for (int i = 0; i < args.length; i ++) {
+                if (OPTION_PORT.equals(args[i])) {
+                    port = Integer.parseInt(args[++ i]);
+                } else if (OPTION_DIAGRAM_THREADS.equals(args[i])) {
+                    threads = Integer.parseInt(args[++ i]);
+                } else if (OPTION_DIAGRAM_CACHE.equals(args[i])) {
+                    cacheDirectory = new File(args[++ i]);
+                } else if (OPTION_DIAGRAM_CACHE_SIZE.equals(args[i])) {
+                    cacheSize = Long.parseLong(args[++ i]) * 1024 * 1024;
+                } else if (OPTION_QUIET.equals(args[i])) {
+                    quiet = true;
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println(
+                    "Usage: " + RenderDaemon.class.getName() +
+                    " [" + OPTION_PORT + " <port>] [" + OPTION_DIAGRAM_THREADS + " <n>]" +
+                    " [" + OPTION_DIAGRAM_CACHE + " <directory> [" + OPTION_DIAGRAM_CACHE_SIZE + " <megabytes>]]" +
+                    " [" + OPTION_QUIET + "]");
+            return;
+        }
+
+        DocErrorReporter reporter = new ConsoleErrorReporter("apiviz-daemon", quiet);
+        if (!Graphviz.isAvailable(reporter)) {
+            reporter.printError("Graphviz not found.");
+            return;
+        }
+
+        RenderCache pngCache = null;
+        RenderCache svgCache = null;
+        if (cacheDirectory != null) {
+            pngCache = new RenderCache(cacheDirectory, cacheSize, DiagramFormat.PNG, Graphviz.getVersion());
+            svgCache = new RenderCache(cacheDirectory, cacheSize, DiagramFormat.SVG, Graphviz.getVersion());
+        }
+
+        RenderDaemon daemon = new RenderDaemon(reporter, port, threads, pngCache, svgCache);
+        reporter.printNotice("Listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ':' + port);
+        daemon.run();
+    }
+
+    private final DocErrorReporter reporter;
+    private final RenderCache pngCache;
+    private final RenderCache svgCache;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final AtomicInteger stores = new AtomicInteger();
+
+    RenderDaemon(
+            DocErrorReporter reporter, int port, int threads,
+            RenderCache pngCache, RenderCache svgCache) throws IOException {
+        this.reporter = reporter;
+        this.pngCache = pngCache;
+        this.svgCache = svgCache;
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until {@link #close()} is called.
+     */
+    void run() {
+        try {
+            for (;;) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (serverSocket.isClosed()) {
+                        return;
+                    }
+                    reporter.printWarning("Failed to accept a connection: " + e.getMessage());
+                    continue;
+                }
+
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } catch (IOException e) {
+                            reporter.printWarning("Failed to serve a request: " + e.getMessage());
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException e) {
+                                // Ignore.
+                            }
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void serve(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+
+        DiagramFormat format = DiagramFormat.forName(in.readUTF());
+        long timeout = in.readLong();
+        int count = in.readInt();
+        if (count < 0 || count > MAX_DIAGRAMS) {
+            throw new IOException("Invalid number of diagrams: " + count);
+        }
+        List<Diagram> diagrams = new ArrayList<Diagram>(count);
+        for (int i = 0; i < count; i ++) {
+            diagrams.add(new Diagram(String.valueOf(i), new String(readBytes(in), "UTF-8")));
+        }
+
+        File directory = Files.createTempDirectory("apiviz-daemon").toFile();
+        try {
+            List<String> diagnostics = new ArrayList<String>();
+            List<String> texts;
+            try {
+                if (format == null) {
+                    throw new IOException("Unknown diagram format.");
+                }
+                texts = render(format, diagrams, directory, timeout, diagnostics);
+            } catch (GraphvizTimeoutException e) {
+                out.writeByte(STATUS_TIMEOUT);
+                writeString(out, String.valueOf(e.getMessage()));
+                out.flush();
+                return;
+            } catch (Exception e) {
+                out.writeByte(STATUS_ERROR);
+                writeString(out, String.valueOf(e.getMessage()));
+                out.flush();
+                return;
+            }
+
+            out.writeByte(STATUS_OK);
+            out.writeInt(diagnostics.size());
+            for (String line: diagnostics) {
+                writeString(out, line);
+            }
+            for (int i = 0; i < count; i ++) {
+                writeBytes(out, texts.get(i).getBytes("ISO-8859-1"));
+                if (format == DiagramFormat.PNG) {
+                    writeBytes(out, Files.readAllBytes(diagrams.get(i).getImageFile(directory).toPath()));
+                }
+            }
+            out.flush();
+        } finally {
+            FileUtil.delete(directory);
+        }
+    }
+
+    private List<String> render(
+            DiagramFormat format, List<Diagram> diagrams, File directory,
+            long timeout, List<String> diagnostics) throws IOException {
+        RenderCache cache = format == DiagramFormat.PNG? pngCache : svgCache;
+        File imageDirectory = format == DiagramFormat.PNG? directory : null;
+
+        String[] texts = new String[diagrams.size()];
+        List<Diagram> misses = new ArrayList<Diagram>();
+        for (int i = 0; i < texts.length; i ++) {
+            Diagram d = diagrams.get(i);
+            if (cache != null) {
+                texts[i] = cache.restore(d.getSource(), getImageFile(d, imageDirectory));
+            }
+            if (texts[i] == null) {
+                misses.add(d);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            List<String> renderedTexts;
+            if (format == DiagramFormat.SVG) {
+                renderedTexts = Graphviz.writeSvgs(reporter, misses, timeout, diagnostics);
+            } else {
+                renderedTexts = Graphviz.writeImagesAndMaps(reporter, misses, directory, timeout, diagnostics);
+            }
+
+            int j = 0;
+            for (int i = 0; i < texts.length; i ++) {
+                if (texts[i] != null) {
+                    continue;
+                }
+                Diagram d = diagrams.get(i);
+                texts[i] = renderedTexts.get(j ++);
+                if (cache != null) {
+                    cache.store(d.getSource(), getImageFile(d, imageDirectory), texts[i]);
+                    if (stores.incrementAndGet() % EVICTION_INTERVAL == 0) {
+                        cache.evict();
+                    }
+                }
+            }
+        }
+
+        List<String> result = new ArrayList<String>(texts.length);
+        for (String t: texts) {
+            result.add(t);
+        }
+        return result;
+    }
+
+    private static File getImageFile(Diagram diagram, File imageDirectory) {
+        if (imageDirectory == null) {
+            return null;
+        }
+        return diagram.getImageFile(imageDirectory);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    static void writeString(DataOutputStream out, String text) throws IOException {
+        writeBytes(out, text.getBytes("UTF-8"));
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), "UTF-8");
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_MESSAGE_SIZE) {
+            throw new IOException("Invalid message length: " + length);
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.jboss.apiviz.Constant.*;
+
+/**
+ * Renders a {@link DotGraph} laid out by {@link LayeredLayout} into an SVG
+ * document that looks like the output of {@code dot -Tsvg}.  Text is
+ * measured with the average character width of the font rather than its
+ * real metrics, so that no font or AWT toolkit is required.
+ *
+ * @author The APIviz Project (apiviz-dev@lists.jboss.org)
+ *
+ */
+class SvgWriter {
+
+    private static final double DEFAULT_FONT_SIZE = 14;
+    private static final double CHAR_WIDTH = 0.55;
+    private static final double LINE_HEIGHT = 1.2;
+    private static final double HORIZONTAL_PADDING = 8;
+    private static final double VERTICAL_PADDING = 4;
+    private static final double ARROW_LENGTH = 10;
+    private static final double ARROW_WIDTH = 3.5;
+
+    private static final Pattern ENTITY_PATTERN = Pattern.compile(
+            "&(#[0-9]+|#x[0-9A-Fa-f]+|amp|lt|gt|quot|apos);");
+    private static final Pattern LINE_WIDTH_PATTERN = Pattern.compile("setlinewidth\\(([0-9.]+)\\)");
+
+    /**
+     * Renders the specified diagram source without Graphviz.
+     */
+    static String render(String source) {
+        DotGraph graph = DotGraph.parse(source);
+        LayeredLayout.layout(graph);
+        return write(graph);
+    }
+
+    /**
+     * Sets the size of the specified node from its label.
+     */
+    static void measure(DotGraph.Node n) {
+        String[] lines = getLines(getLabel(n));
+        double fontSize = n.getAttribute("fontsize", DEFAULT_FONT_SIZE);
+        int maxLength = 0;
+        for (String l: lines) {
+            maxLength = Math.max(maxLength, ENTITY_PATTERN.matcher(l).replaceAll("_").length());
+        }
+
+        n.width = Math.max(
+                n.getAttribute("width", 0.75) * 72,
+                maxLength * fontSize * CHAR_WIDTH + 2 * HORIZONTAL_PADDING);
+        n.height = Math.max(
+                n.getAttribute("height", 0.5) * 72,
+                lines.length * fontSize * LINE_HEIGHT + 2 * VERTICAL_PADDING);
+    }
+
+    static String write(DotGraph graph) {
+        StringBuilder buf = new StringBuilder(8192);
+        buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>" + NEWLINE);
+        buf.append("<svg width=\"" + format(graph.width) + "pt\" height=\"" + format(graph.height) + "pt\"" + NEWLINE);
+        buf.append(" viewBox=\"0.00 0.00 " + format(graph.width) + " " + format(graph.height) + "\"" +
+                   " xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">" + NEWLINE);
+        buf.append("<g id=\"graph0\" class=\"graph\">" + NEWLINE);
+        buf.append("<polygon fill=\"white\" stroke=\"none\" points=\"0,0 " +
+                   format(graph.width) + ",0 " + format(graph.width) + "," + format(graph.height) + " 0," +
+                   format(graph.height) + "\"/>" + NEWLINE);
+
+        // outputorder=edgesfirst
+        for (DotGraph.Link l: graph.getLinks()) {
+            writeLink(buf, l);
+        }
+        for (DotGraph.Node n: graph.getNodes()) {
+            writeNode(buf, n);
+        }
+
+        buf.append("</g>" + NEWLINE);
+        buf.append("</svg>" + NEWLINE);
+        return buf.toString();
+    }
+
+    private static void writeNode(StringBuilder buf, DotGraph.Node n) {
+        String style = getStyle(n);
+        buf.append("<g class=\"node\"><title>" + escape(n.getId()) + "</title>" + NEWLINE);
+
+        String href = n.getAttribute("href");
+        if (href != null) {
+            String tooltip = n.getAttribute("tooltip");
+            buf.append("<a xlink:href=\"" + escape(href) + "\" xlink:title=\"" +
+                       escape(tooltip != null? tooltip : getLabel(n)) + "\">" + NEWLINE);
+        }
+
+        String fill = style.contains("filled")?
+                getColor(n.getAttribute("fillcolor"), getColor(n.getAttribute("color"), "lightgrey")) : "none";
+        buf.append("<rect x=\"" + format(n.x - n.width / 2) + "\" y=\"" + format(n.y - n.height / 2) +
+                   "\" width=\"" + format(n.width) + "\" height=\"" + format(n.height) +
+                   "\" fill=\"" + fill + "\" stroke=\"" + getColor(n.getAttribute("color"), "black") + "\"" +
+                   getStrokeAttributes(style) + "/>" + NEWLINE);
+
+        String[] lines = getLines(getLabel(n));
+        double fontSize = n.getAttribute("fontsize", DEFAULT_FONT_SIZE);
+        double y = n.y - (lines.length - 1) * fontSize * LINE_HEIGHT / 2 + fontSize * 0.35;
+        for (String line: lines) {
+            writeText(buf, n.x, y, "middle", line, n.getAttribute("fontname"), fontSize,
+                      getColor(n.getAttribute("fontcolor"), "black"));
+            y += fontSize * LINE_HEIGHT;
+        }
+
+        if (href != null) {
+            buf.append("</a>" + NEWLINE);
+        }
+        buf.append("</g>" + NEWLINE);
+    }
+
+    private static void writeLink(StringBuilder buf, DotGraph.Link l) {
+        if (l.xs == null) {
+            return;
+        }
+
+        String style = getStyle(l);
+        String color = getColor(l.getAttribute("color"), "black");
+        String strokeAttributes = getStrokeAttributes(style);
+        String dir = l.getAttribute("dir");
+        String arrowHead = "back".equals(dir) || "none".equals(dir)? "none" : getArrowType(l.getAttribute("arrowhead"));
+        String arrowTail = "both".equals(dir) || "back".equals(dir)? getArrowType(l.getAttribute("arrowtail")) : "none";
+
+        double[] xs = l.xs.clone();
+        double[] ys = l.ys.clone();
+        int last = xs.length - 1;
+        double[] head = shorten(xs, ys, last, last - 1, arrowHead);
+        double[] tail = shorten(xs, ys, 0, 1, arrowTail);
+
+        buf.append("<g class=\"edge\"><title>" + escape(l.getTail().getId()) + "&#45;&gt;" +
+                   escape(l.getHead().getId()) + "</title>" + NEWLINE);
+        buf.append("<polyline fill=\"none\" stroke=\"" + color + "\"" + strokeAttributes + " points=\"");
+        for (int i = 0; i <= last; i ++) {
+            if (i > 0) {
+                buf.append(' ');
+            }
+            buf.append(format(xs[i]) + "," + format(ys[i]));
+        }
+        buf.append("\"/>" + NEWLINE);
+
+        writeArrow(buf, arrowHead, l.xs[last], l.ys[last], head, color);
+        writeArrow(buf, arrowTail, l.xs[0], l.ys[0], tail, color);
+
+        String fontName = l.getAttribute("fontname");
+        double fontSize = l.getAttribute("fontsize", DEFAULT_FONT_SIZE);
+        String fontColor = getColor(l.getAttribute("fontcolor"), "black");
+        String label = l.getAttribute("label");
+        if (label != null && label.trim().length() != 0) {
+            int mid = last / 2;
+            double x = (l.xs[mid] + l.xs[mid + 1]) / 2 + fontSize / 2;
+            double y = (l.ys[mid] + l.ys[mid + 1]) / 2;
+            writeText(buf, x, y, "start", label, fontName, fontSize, fontColor);
+        }
+        String headLabel = l.getAttribute("headlabel");
+        if (headLabel != null && headLabel.trim().length() != 0) {
+            writeText(buf, l.xs[last] + head[0] * 1.5 + fontSize / 2, l.ys[last] + head[1] * 1.5,
+                      "start", headLabel, fontName, fontSize, fontColor);
+        }
+        String tailLabel = l.getAttribute("taillabel");
+        if (tailLabel != null && tailLabel.trim().length() != 0) {
+            writeText(buf, l.xs[0] + tail[0] * 1.5 + fontSize / 2, l.ys[0] + tail[1] * 1.5,
+                      "start", tailLabel, fontName, fontSize, fontColor);
+        }
+
+        buf.append("</g>" + NEWLINE);
+    }
+
+    /**
+     * Moves the specified end of a polyline back by the length of its
+     * arrow, and returns the vector from the end to the moved point.
+     */
+    private static double[] shorten(double[] xs, double[] ys, int end, int next, String arrow) {
+        double dx = xs[next] - xs[end];
+        double dy = ys[next] - ys[end];
+        double length = Math.sqrt(dx * dx + dy * dy);
+        if (length == 0) {
+            return new double[] { 0, 0 };
+        }
+
+        double arrowLength = "none".equals(arrow)? 0 : Math.min(ARROW_LENGTH, length);
+        double[] vector = { dx / length * arrowLength, dy / length * arrowLength };
+        if (arrowLength == 0) {
+            vector[0] = dx / length * ARROW_LENGTH;
+            vector[1] = dy / length * ARROW_LENGTH;
+        } else {
+            xs[end] += vector[0];
+            ys[end] += vector[1];
+        }
+        return vector;
+    }
+
+    private static void writeArrow(
+            StringBuilder buf, String arrow, double x, double y, double[] vector, String color) {
+        if ("none".equals(arrow)) {
+            return;
+        }
+
+        boolean open = arrow.startsWith("o");
+        String shape = open? arrow.substring(1) : arrow;
+        double length = Math.sqrt(vector[0] * vector[0] + vector[1] * vector[1]);
+        if (length == 0) {
+            return;
+        }
+
+        // The unit vectors along and across the arrow
+        double ux = vector[0] / length;
+        double uy = vector[1] / length;
+        double vx = -uy;
+        double vy = ux;
+
+        double[][] points;
+        if ("diamond".equals(shape)) {
+            points = new double[][] {
+                    { x, y },
+                    { x + ux * length / 2 + vx * ARROW_WIDTH, y + uy * length / 2 + vy * ARROW_WIDTH },
+                    { x + ux * length, y + uy * length },
+                    { x + ux * length / 2 - vx * ARROW_WIDTH, y + uy * length / 2 - vy * ARROW_WIDTH } };
+        } else if ("vee".equals(shape)) {
+            points = new double[][] {
+                    { x, y },
+                    { x + ux * length + vx * ARROW_WIDTH, y + uy * length + vy * ARROW_WIDTH },
+                    { x + ux * length * 0.6, y + uy * length * 0.6 },
+                    { x + ux * length - vx * ARROW_WIDTH, y + uy * length - vy * ARROW_WIDTH } };
+        } else {
+            points = new double[][] {
+                    { x, y },
+                    { x + ux * length + vx * ARROW_WIDTH, y + uy * length + vy * ARROW_WIDTH },
+                    { x + ux * length - vx * ARROW_WIDTH, y + uy * length - vy * ARROW_WIDTH } };
+        }
+
+        buf.append("<polygon fill=\"" + (open? "none" : color) + "\" stroke=\"" + color + "\" points=\"");
+        for (int i = 0; i < points.length; i ++) {
+            if (i > 0) {
+                buf.append(' ');
+            }
+            buf.append(format(points[i][0]) + "," + format(points[i][1]));
+        }
+        buf.append("\"/>" + NEWLINE);
+    }
+
+    private static void writeText(
+            StringBuilder buf, double x, double y, String anchor,
+            String text, String fontName, double fontSize, String color) {
+        buf.append("<text text-anchor=\"" + anchor + "\" x=\"" + format(x) + "\" y=\"" + format(y) + "\"");
+        if (fontName != null) {
+            String family = fontName;
+            if (family.endsWith(" Italic")) {
+                family = family.substring(0, family.length() - 7);
+                buf.append(" font-style=\"italic\"");
+            }
+            buf.append(" font-family=\"" + escape(family) + "\"");
+        }
+        buf.append(" font-size=\"" + format(fontSize) + "\" fill=\"" + color + "\">" +
+                   escape(text) + "</text>" + NEWLINE);
+    }
+
+    private static String getLabel(DotGraph.Node n) {
+        String label = n.getAttribute("label");
+        return label != null? label : n.getId();
+    }
+
+    private static String[] getLines(String label) {
+        return label.split("\\\\[nlr]", -1);
+    }
+
+    private static String getStyle(DotGraph.Node n) {
+        String style = n.getAttribute("style");
+        return style != null? style : "";
+    }
+
+    private static String getStyle(DotGraph.Link l) {
+        String style = l.getAttribute("style");
+        return style != null? style : "";
+    }
+
+    private static String getStrokeAttributes(String style) {
+        StringBuilder buf = new StringBuilder();
+        Matcher m = LINE_WIDTH_PATTERN.matcher(style);
+        if (m.find()) {
+            buf.append(" stroke-width=\"" + m.group(1) + "\"");
+        }
+        if (style.contains("dotted")) {
+            buf.append(" stroke-dasharray=\"1,5\"");
+        } else if (style.contains("dashed")) {
+            buf.append(" stroke-dasharray=\"5,2\"");
+        }
+        return buf.toString();
+    }
+
+    private static String getArrowType(String arrow) {
+        if (arrow == null || arrow.length() == 0) {
+            return "normal";
+        }
+        // The synonyms accepted by Graphviz
+        if ("open".equals(arrow)) {
+            return "vee";
+        }
+        if ("empty".equals(arrow)) {
+            return "onormal";
+        }
+        if ("ediamond".equals(arrow)) {
+            return "odiamond";
+        }
+        return arrow;
+    }
+
+    private static String getColor(String color, String defaultColor) {
+        if (color == null || color.length() == 0) {
+            color = defaultColor;
+        }
+        if (color.startsWith("#")) {
+            return color;
+        }
+
+        try {
+            return Color.resolveColor(color);
+        } catch (IllegalArgumentException e) {
+            // Not an X11 color name; let the browser try.
+            return escape(color);
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+
+    /**
+     * Escapes the specified text for XML, retaining the character
+     * references generated by {@link ClassDocGraph} and replacing the
+     * non-ASCII characters with character references.
+     */
+    static String escape(String text) {
+        StringBuilder buf = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i ++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '&':
+                Matcher m = ENTITY_PATTERN.matcher(text);
+                if (m.find(i) && m.start() == i) {
+                    buf.append(c);
+                } else {
+                    buf.append("&amp;");
+                }
+                break;
+            case '<':
+                buf.append("&lt;");
+                break;
+            case '>':
+                buf.append("&gt;");
+                break;
+            case '"':
+                buf.append("&quot;");
+                break;
+            default:
+                if (c < 0x80) {
+                    buf.append(c);
+                } else {
+                    buf.append("&#" + text.codePointAt(i) + ';');
+                    if (Character.isHighSurrogate(c)) {
+                        i ++;
+                    }
+                }
+            }
+        }
+        return buf.toString();
+    }
+}
@@ -61,6 +61,11 @@ public class APIVizTest {
         assertEquals(1, APIviz.optionLength(Constant.OPTION_NO_PACKAGE_DIAGRAM));
     }
 
+    @Test
+    public void testOptionLength_OPTION_DIAGRAM_THREADS() {
+        assertEquals(2, APIviz.optionLength(Constant.OPTION_DIAGRAM_THREADS));
+    }
+
     @Test
     public void testOptionLength_Not_Specified() {
         assertEquals(Standard.optionLength("Bleh"), APIviz.optionLength("Bleh"));
@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import com.sun.javadoc.ClassDoc;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import static org.jboss.apiviz.EdgeType.*;
+import static org.junit.Assert.*;
+
+public class CompactGraphTest {
+
+    @Test
+    public void testAdjacency() {
+        ClassDoc a = classDoc("a.A");
+        ClassDoc b = classDoc("a.B");
+        ClassDoc c = classDoc("a.C");
+        ClassDoc external = classDoc("b.D");
+        Edge bc = new Edge(REALIZATION, b, c);
+        Edge ba = new Edge(GENERALIZATION, b, a);
+        Edge ca = new Edge(GENERALIZATION, c, a);
+        Edge cd = new Edge(GENERALIZATION, c, external);
+
+        CompactGraph graph = new CompactGraph(
+                Arrays.asList(a, b, c),
+                Arrays.asList(bc, ca, ba, new Edge(GENERALIZATION, b, a), cd));
+
+        assertEquals(3, graph.getNodeCount());
+        assertSame(b, graph.getNode(1));
+        assertEquals(-1, graph.getOrdinal(external));
+        // The duplicate is removed.
+        assertEquals(4, graph.getEdgeCount());
+
+        // Outgoing edges are in their natural order.
+        int node = graph.getOrdinal(b);
+        assertEquals(2, graph.getOutgoingEnd(node) - graph.getOutgoingStart(node));
+        assertEquals(ba, graph.getEdge(graph.getOutgoingEdge(graph.getOutgoingStart(node))));
+        assertEquals(bc, graph.getEdge(graph.getOutgoingEdge(graph.getOutgoingStart(node) + 1)));
+
+        node = graph.getOrdinal(a);
+        assertEquals(0, graph.getOutgoingEnd(node) - graph.getOutgoingStart(node));
+        assertEquals(2, graph.getIncomingEnd(node) - graph.getIncomingStart(node));
+        assertEquals(ba, graph.getEdge(graph.getIncomingEdge(graph.getIncomingStart(node))));
+        assertEquals(ca, graph.getEdge(graph.getIncomingEdge(graph.getIncomingStart(node) + 1)));
+
+        // An edge to a class outside the graph is only an outgoing edge.
+        node = graph.getOrdinal(c);
+        assertEquals(2, graph.getOutgoingEnd(node) - graph.getOutgoingStart(node));
+        int edge = graph.getOutgoingEdge(graph.getOutgoingStart(node) + 1);
+        assertEquals(cd, graph.getEdge(edge));
+        assertEquals(node, graph.getSource(edge));
+        assertEquals(-1, graph.getTarget(edge));
+        assertSame(external, graph.getTargetDoc(edge));
+    }
+
+    @Test
+    public void testLabels() {
+        ClassDoc a = classDoc("a.A");
+        ClassDoc b = classDoc("a.B");
+        Edge ab = new Edge(NAVIGABILITY, a, b, "1", "*", "has", false);
+        Edge ba = new Edge(NAVIGABILITY, b, a, "*", "1", "", true);
+
+        CompactGraph graph = new CompactGraph(
+                Arrays.asList(a, b), Arrays.asList(ab, ba));
+
+        int edge = graph.getOutgoingEdge(graph.getOutgoingStart(graph.getOrdinal(a)));
+        assertEquals(NAVIGABILITY, graph.getType(edge));
+        Edge e = graph.getEdge(edge);
+        assertEquals(ab, e);
+        assertEquals("1", e.getSourceLabel());
+        assertEquals("*", e.getTargetLabel());
+        assertEquals("has", e.getEdgeLabel());
+        assertFalse(e.isOneway());
+
+        edge = graph.getOutgoingEdge(graph.getOutgoingStart(graph.getOrdinal(b)));
+        assertEquals(ba, graph.getEdge(edge));
+        assertTrue(graph.getEdge(edge).isOneway());
+    }
+
+    private static ClassDoc classDoc(final String qualifiedName) {
+        return (ClassDoc) Proxy.newProxyInstance(
+                ClassDoc.class.getClassLoader(), new Class<?>[] { ClassDoc.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("qualifiedName")) {
+                            return qualifiedName;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
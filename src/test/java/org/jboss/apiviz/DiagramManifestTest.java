@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class DiagramManifestTest {
+
+    @Test
+    public void testRestore() throws Exception {
+        File dir = Files.createTempDirectory("apiviz").toFile();
+        try {
+            Diagram a = new Diagram("a/A", "digraph APIVIZ {\nA;\n}\n");
+            Diagram b = new Diagram("a/B", "digraph APIVIZ {\nB;\n}\n");
+            new File(dir, "a").mkdir();
+            FileUtil.writeFile(a.getImageFile(dir), "PNG");
+
+            DiagramManifest manifest = new DiagramManifest(dir, DiagramFormat.PNG, "dot 1");
+            assertNull(manifest.restore(a));
+            manifest.record(a, "<map>A</map>");
+            manifest.record(b, "<map>B</map>");
+            manifest.save();
+
+            manifest = new DiagramManifest(dir, DiagramFormat.PNG, "dot 1");
+            assertEquals("<map>A</map>", manifest.restore(a));
+            // The image is gone.
+            assertNull(manifest.restore(b));
+            // The source has changed.
+            assertNull(manifest.restore(new Diagram("a/A", "digraph APIVIZ {\nC;\n}\n")));
+            assertNull(new DiagramManifest(dir, DiagramFormat.SVG, "dot 1").restore(a));
+            assertNull(new DiagramManifest(dir, DiagramFormat.PNG, "BUILTIN").restore(a));
+        } finally {
+            FileUtil.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class DiagramRendererTest {
+
+    private static final String SOURCE = "digraph APIVIZ {\nA;\n}\n";
+
+    @Test
+    public void testDeferredIncremental() throws Exception {
+        File dir = Files.createTempDirectory("apiviz").toFile();
+        try {
+            File page = new File(dir, "A.html");
+            FileUtil.writeFile(page, "<div class=\"contentContainer\"></div>");
+            DiagramRenderer renderer = newRenderer(dir, DiagramEngine.DEFERRED, null);
+            try {
+                renderer.render("A", SOURCE);
+                renderer.start();
+                renderer.finish();
+            } finally {
+                renderer.shutdown();
+            }
+            assertTrue(new File(dir, "A" + Diagram.SOURCE_SUFFIX).isFile());
+
+            // The previous run left the image and the manifest behind.
+            Diagram a = new Diagram("A", SOURCE);
+            FileUtil.writeFile(a.getImageFile(dir), "PNG");
+            DiagramManifest manifest = new DiagramManifest(dir, DiagramFormat.PNG, "dot 1");
+            manifest.record(a, "<map>A</map>");
+            manifest.save();
+
+            // Nothing is rendered, so Graphviz is not needed.
+            renderer = newRenderer(
+                    dir, DiagramEngine.GRAPHVIZ,
+                    new DiagramManifest(dir, DiagramFormat.PNG, "dot 1"));
+            try {
+                renderer.renderDeferred("A", SOURCE);
+                renderer.start();
+                renderer.finish();
+            } finally {
+                renderer.shutdown();
+            }
+
+            assertTrue(renderer.isReplaced("A"));
+            assertEquals("PNG", FileUtil.readFile(a.getImageFile(dir)));
+            String html = FileUtil.readFile(page);
+            assertTrue(html.contains("<map>A</map>"));
+            assertTrue(html.contains("<img src=\"A.png\""));
+        } finally {
+            FileUtil.delete(dir);
+        }
+    }
+
+    @Test
+    public void testShareLayouts() throws Exception {
+        File dir = Files.createTempDirectory("apiviz").toFile();
+        try {
+            new File(dir, "a").mkdir();
+            new File(dir, "b").mkdir();
+            File pageA = new File(dir, "a/X.html");
+            File pageB = new File(dir, "b/X.html");
+            FileUtil.writeFile(pageA, "<div class=\"contentContainer\"></div>");
+            FileUtil.writeFile(pageB, "<div class=\"contentContainer\"></div>");
+
+            DiagramRenderer renderer = new DiagramRenderer(
+                    new ConsoleErrorReporter("apiviz", true), dir, 1, 1, 1,
+                    DiagramEngine.BUILTIN, DiagramFormat.SVG, 0, null, null, null, null, false, true);
+            try {
+                renderer.render("a" + File.separatorChar + "X", source("../a/Y.html"));
+                renderer.render("b" + File.separatorChar + "X", source("../b/Y.html"));
+                renderer.start();
+                renderer.finish();
+            } finally {
+                renderer.shutdown();
+            }
+
+            // Each page links to its own classes.
+            assertTrue(FileUtil.readFile(pageA).contains("../a/Y.html"));
+            assertFalse(FileUtil.readFile(pageA).contains("../b/Y.html"));
+            assertTrue(FileUtil.readFile(pageB).contains("../b/Y.html"));
+            assertFalse(FileUtil.readFile(pageB).contains("../a/Y.html"));
+        } finally {
+            FileUtil.delete(dir);
+        }
+    }
+
+    private static String source(String link) {
+        return "digraph APIVIZ {\n" +
+               "X [label=\"X\"];\n" +
+               "Y [label=\"Y\", href=\"" + link + "\"];\n" +
+               "X -> Y;\n" +
+               "}\n";
+    }
+
+    private static DiagramRenderer newRenderer(
+            File dir, DiagramEngine engine, DiagramManifest manifest) throws Exception {
+        return new DiagramRenderer(
+                new ConsoleErrorReporter("apiviz", true), dir, 1, 1, 1,
+                engine, DiagramFormat.PNG, 0, null, manifest, null, null, false, false);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import org.junit.Test;
+
+import static org.jboss.apiviz.Constant.*;
+import static org.junit.Assert.*;
+
+public class DiagramTest {
+
+    @Test
+    public void testDegrade() {
+        Diagram d = new Diagram("a/A",
+                "digraph APIVIZ {" + NEWLINE +
+                "mclimit=128;" + NEWLINE +
+                "remincross=true;" + NEWLINE +
+                "splines=polyline;" + NEWLINE +
+                "}" + NEWLINE);
+
+        Diagram degraded = d.degrade();
+        assertEquals("a/A", degraded.getFilename());
+        assertEquals(
+                "digraph APIVIZ {" + NEWLINE +
+                "searchsize=30;" + NEWLINE +
+                "mclimit=0.1;" + NEWLINE +
+                "splines=line;" + NEWLINE +
+                "}" + NEWLINE,
+                degraded.getSource());
+    }
+
+    @Test
+    public void testCost() {
+        Diagram d = new Diagram("a/A",
+                "digraph APIVIZ {" + NEWLINE +
+                "rankdir=TB;" + NEWLINE +
+                "edge [fontsize=10]; " + NEWLINE +
+                "node [shape=box]; " + NEWLINE +
+                "a_A [label=\"A\", href=\"A.html\"];" + NEWLINE +
+                "a_B [label=\"B\", href=\"B.html\"];" + NEWLINE +
+                "a_A -> a_B [arrowhead=\"none\", label=\"\" ];" + NEWLINE +
+                "}" + NEWLINE);
+
+        assertEquals(2, d.getNodeCount());
+        assertEquals(1, d.getEdgeCount());
+        assertTrue(d.getCost() > new Diagram("a/B", "digraph APIVIZ {" + NEWLINE + "}" + NEWLINE).getCost());
+    }
+
+    @Test
+    public void testShareLayout() {
+        Diagram a = new Diagram("a/A",
+                "digraph APIVIZ {" + NEWLINE +
+                "X [label=\"X\", href=\"X.html\"];" + NEWLINE +
+                "Y [label=\"Y\", href=\"Y.html\"];" + NEWLINE +
+                "X -> Y [label=\"\" ];" + NEWLINE +
+                "}" + NEWLINE);
+        Diagram b = new Diagram("b/B",
+                "digraph APIVIZ {" + NEWLINE +
+                "Z [label=\"X\", href=\"../a/X.html\"];" + NEWLINE +
+                "Y [label=\"Y\", href=\"../a/Y.html\"];" + NEWLINE +
+                "Z -> Y [label=\"\" ];" + NEWLINE +
+                "}" + NEWLINE);
+
+        assertFalse(a.getLayoutSource(false).equals(b.getLayoutSource(false)));
+        assertEquals(a.getLayoutSource(true), b.getLayoutSource(true));
+        assertEquals(
+                "<area shape=\"rect\" href=\"../a/Y.html\"/><area href=\"../a/X.html\"/>",
+                Diagram.replaceLinks(
+                        "<area shape=\"rect\" href=\"Y.html\"/><area href=\"X.html\"/>",
+                        b.mapLinks(a)));
+    }
+}
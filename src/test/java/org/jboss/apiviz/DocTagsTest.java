@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import com.sun.javadoc.Doc;
+import com.sun.javadoc.Tag;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DocTagsTest {
+
+    @Test
+    public void testSnapshot() {
+        DocTags tags = new DocTags(doc(
+                tag("@apiviz.category", "a"),
+                tag("@apiviz.category", "b"),
+                tag("@apiviz.landmark", ""),
+                tag("@apiviz.exclude", "Foo"),
+                tag("@apiviz.exclude", "Bar"),
+                tag("@deprecated", "")));
+        assertEquals("a", tags.getCategory());
+        assertNull(tags.getStereotype());
+        assertTrue(tags.isLandmark());
+        assertTrue(tags.isDeprecated());
+        assertFalse(tags.isInherit());
+        assertFalse(tags.isExcludeSubtypes());
+        assertFalse(tags.isHidden());
+        assertEquals(Arrays.asList("Foo", "Bar"), tags.getExcludes());
+    }
+
+    @Test
+    public void testHidden() {
+        assertTrue(new DocTags(doc(tag("@apiviz.hidden", ""))).isHidden());
+        assertTrue(new DocTags(doc(tag("@apiviz.exclude", "Foo"), tag("@apiviz.exclude", " "))).isHidden());
+        assertFalse(new DocTags(doc(tag("@apiviz.exclude", "Foo"))).isHidden());
+    }
+
+    private static Doc doc(final Tag... tags) {
+        return (Doc) Proxy.newProxyInstance(
+                Doc.class.getClassLoader(), new Class<?>[] { Doc.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("tags") && method.getParameterTypes().length == 0) {
+                            return tags;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static Tag tag(final String name, final String text) {
+        return (Tag) Proxy.newProxyInstance(
+                Tag.class.getClassLoader(), new Class<?>[] { Tag.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("name")) {
+                            return name;
+                        }
+                        if (method.getName().equals("text")) {
+                            return text;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
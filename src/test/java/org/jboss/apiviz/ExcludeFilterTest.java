@@ -0,0 +1,50 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ExcludeFilterTest {
+
+    @Test
+    public void testMatches() {
+        ExcludeFilter filter = new ExcludeFilter(Arrays.asList(" \\.internal\\. ", "", null, "Impl$"));
+        assertTrue(filter.matches("org.example.internal.Foo"));
+        assertTrue(filter.matches("org.example.FooImpl"));
+        assertFalse(filter.matches("org.example.Foo"));
+        // Remembered
+        assertTrue(filter.matches("org.example.FooImpl"));
+        assertFalse(filter.matches("org.example.Foo"));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertFalse(new ExcludeFilter(Collections.<String>emptyList()).matches("org.example.Foo"));
+        assertFalse(new ExcludeFilter(Arrays.asList("  ")).matches("org.example.Foo"));
+    }
+}
@@ -23,6 +23,13 @@
 package org.jboss.apiviz;
 
 import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import static org.junit.Assert.*;
 
 /**
@@ -45,4 +52,47 @@ public class GraphvizTest {
                 .matches(Graphviz.GRAPHVIZ_EXECUTABLE_FIRST_LINE_CHECK));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSplitBatchOutput() throws IOException {
+        byte[] first = png(3);
+        byte[] second = png(70000);
+        String firstMap = "<map id=\"APIVIZ\" name=\"APIVIZ\">\n<area href=\"A.html\"/>\n</map>\n";
+        String secondMap = "<map id=\"APIVIZ\" name=\"APIVIZ\">\n</map>\n";
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(first);
+        out.write(firstMap.getBytes("ISO-8859-1"));
+        out.write(second);
+        out.write(secondMap.getBytes("ISO-8859-1"));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertArrayEquals(first, Graphviz.readPng(in));
+        assertEquals(firstMap, new String(Graphviz.readMap(in), "ISO-8859-1"));
+        assertArrayEquals(second, Graphviz.readPng(in));
+        assertEquals(secondMap, new String(Graphviz.readMap(in), "ISO-8859-1"));
+        assertEquals(-1, in.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void testSplitBatchOutputRejectsNonPng() throws IOException {
+        Graphviz.readPng(new DataInputStream(new ByteArrayInputStream(
+                "Error: syntax error in line 1".getBytes("ISO-8859-1"))));
+    }
+
+    private static byte[] png(int dataLength) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        out.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' });
+        out.writeInt(dataLength);
+        out.writeBytes("IDAT");
+        for (int i = 0; i < dataLength; i ++) {
+            // Make sure the terminating chunk type may appear in the data.
+            out.write("IEND".charAt(i % 4));
+        }
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeBytes("IEND");
+        out.writeInt(0xAE426082);
+        return buf.toByteArray();
+    }
+}
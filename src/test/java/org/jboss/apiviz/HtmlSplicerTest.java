@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.regex.Pattern;
+
+import static org.jboss.apiviz.Constant.*;
+import static org.junit.Assert.*;
+
+public class HtmlSplicerTest {
+
+    private static final Pattern INSERTION_POINT_PATTERN = Pattern.compile(
+            "((<\\/PRE>)(?=\\s*(<P>|<div[^>]*block))|(?=<TABLE BORDER=\"1\")|(<div[^>]*contentContainer[^>]*>))",
+            Pattern.CASE_INSENSITIVE);
+
+    @Test
+    public void testSplice() throws Exception {
+        StringBuilder page = new StringBuilder();
+        for (int i = 0; i < 100; i ++) {
+            page.append("<pre>").append(i).append("</pre>\n");
+        }
+        page.append("</PRE>");
+        String suffix = "\n\n   <div class=\"block\"><table>\u00e9</table>\n";
+
+        assertEquals(
+                page + NEWLINE + "<map/>" + suffix,
+                splice(page + suffix, "<map/>"));
+        assertEquals(
+                page + NEWLINE + "<map/>" + suffix,
+                splice(page + NEWLINE + "<!-- placeholder: A.dot -->" + suffix, "<map/>"));
+        assertEquals(
+                "<div class=\"contentContainer\">" + NEWLINE + "<map/></div>",
+                splice("<div class=\"contentContainer\">" + NEWLINE + "<!-- placeholder: A.dot --></div>", "<map/>"));
+    }
+
+    @Test
+    public void testReplace() throws Exception {
+        String page = "<div class=\"contentContainer\">" + NEWLINE + "<!-- placeholder: A.dot --></div>";
+        File file = File.createTempFile("apiviz", ".html");
+        try {
+            FileUtil.writeFile(file, page);
+            assertTrue(new HtmlSplicer(INSERTION_POINT_PATTERN, "<!-- placeholder: ", 7, 64).replace(file, "<map/>"));
+            assertEquals("<div class=\"contentContainer\">" + NEWLINE + "<map/></div>", FileUtil.readFile(file));
+
+            // No placeholder left
+            assertFalse(new HtmlSplicer(INSERTION_POINT_PATTERN, "<!-- placeholder: ", 7, 64).replace(file, "<map/>"));
+            assertEquals("<div class=\"contentContainer\">" + NEWLINE + "<map/></div>", FileUtil.readFile(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLongPage() throws Exception {
+        StringBuilder prefix = new StringBuilder();
+        while (prefix.length() < 16 * 1024) {
+            prefix.append("<p>Lorem ipsum <b>dolor</b> sit amet</p>\n");
+        }
+        String suffix = "\n<P>\n";
+        final int bufferSize = 16;
+        final int maxMatchLength = 64;
+
+        final StringWriter out = new StringWriter();
+        Reader in = new StringReader(prefix + "</PRE>" + suffix) {
+            private int position;
+
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                // The text that has been read but not written is bounded.
+                assertTrue(position - out.getBuffer().length() <= bufferSize + maxMatchLength);
+                int length = super.read(buf, off, len);
+                if (length > 0) {
+                    position += length;
+                }
+                return length;
+            }
+        };
+
+        HtmlSplicer splicer = new HtmlSplicer(INSERTION_POINT_PATTERN, "<!-- placeholder: ", bufferSize, maxMatchLength);
+        assertFalse(splicer.splice(in, out, "<map/>", new File("A.html")));
+        assertEquals(prefix + "</PRE>" + NEWLINE + "<map/>" + suffix, out.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoInsertionPoint() throws Exception {
+        splice("<html></PRE><table></table></html>", "<map/>");
+    }
+
+    private static String splice(String content, String fragment) throws Exception {
+        File file = File.createTempFile("apiviz", ".html");
+        try {
+            FileUtil.writeFile(file, content);
+            // Small buffers make the insertion point span several chunks.
+            new HtmlSplicer(INSERTION_POINT_PATTERN, "<!-- placeholder: ", 7, 64).splice(file, fragment);
+            return FileUtil.readFile(file);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LayeredLayoutTest {
+
+    private static final String SOURCE =
+        "digraph APIVIZ {\n" +
+        "rankdir=TB;\n" +
+        "node [shape=box, fontsize=10, width=0.1, height=0.1];\n" +
+        "A [label=\"\u00abinterface\u00bb\\nA\", href=\"A.html\"];\n" +
+        "B [label=\"B\", href=\"B.html\"];\n" +
+        "C [label=\"C\"];\n" +
+        "A -> B [arrowhead=\"none\", arrowtail=\"onormal\", dir=\"both\"];\n" +
+        "B -> C [label=\"uses\"];\n" +
+        "A -> C;\n" +
+        "C -> A;\n" +
+        "}\n";
+
+    @Test
+    public void testTopToBottom() {
+        DotGraph graph = DotGraph.parse(SOURCE);
+        LayeredLayout.layout(graph);
+
+        List<DotGraph.Node> nodes = graph.getNodes();
+        assertEquals(3, nodes.size());
+        assertEquals(4, graph.getLinks().size());
+        DotGraph.Node a = nodes.get(0);
+        DotGraph.Node b = nodes.get(1);
+        DotGraph.Node c = nodes.get(2);
+        assertTrue(a.y < b.y);
+        assertTrue(b.y < c.y);
+        assertTrue(a.height > b.height);
+
+        // The edge that spans two ranks goes around B.
+        DotGraph.Link ac = graph.getLinks().get(2);
+        assertEquals(3, ac.xs.length);
+        assertTrue(Math.abs(ac.xs[1] - b.x) >= b.width / 2);
+    }
+
+    @Test
+    public void testLeftToRight() {
+        DotGraph graph = DotGraph.parse(SOURCE.replace("rankdir=TB", "rankdir=LR"));
+        LayeredLayout.layout(graph);
+
+        List<DotGraph.Node> nodes = graph.getNodes();
+        assertTrue(nodes.get(0).x < nodes.get(1).x);
+        assertTrue(nodes.get(1).x < nodes.get(2).x);
+    }
+
+    @Test
+    public void testSvg() {
+        String svg = SvgWriter.render(SOURCE);
+        assertTrue(svg.contains("<a xlink:href=\"A.html\""));
+        assertTrue(svg.contains("&#171;interface&#187;</text>"));
+        assertTrue(svg.contains(">uses</text>"));
+        assertTrue(svg.trim().endsWith("</svg>"));
+    }
+}
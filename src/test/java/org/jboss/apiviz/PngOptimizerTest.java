@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class PngOptimizerTest {
+
+    @Test
+    public void testOptimize() throws Exception {
+        BufferedImage image = new BufferedImage(64, 32, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y ++) {
+            for (int x = 0; x < image.getWidth(); x ++) {
+                image.setRGB(x, y, x < 16? 0x00ffffff : y % 2 == 0? 0xff000000 : 0xfff4f4f4);
+            }
+        }
+
+        File file = File.createTempFile("apiviz", ".png");
+        try {
+            ImageIO.write(image, "png", file);
+            long length = file.length();
+
+            PngOptimizer optimizer = new PngOptimizer();
+            optimizer.optimize(file);
+            assertEquals(length, optimizer.getOriginalSize());
+            assertEquals(file.length(), optimizer.getOptimizedSize());
+            assertTrue(file.length() < length);
+
+            BufferedImage optimized = ImageIO.read(file);
+            for (int y = 0; y < image.getHeight(); y ++) {
+                for (int x = 0; x < image.getWidth(); x ++) {
+                    assertEquals(image.getRGB(x, y), optimized.getRGB(x, y));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTooManyColors() {
+        BufferedImage image = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < 32 * 32; i ++) {
+            image.setRGB(i % 32, i / 32, i);
+        }
+        assertNull(PngOptimizer.toIndexedImage(image));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ProbeCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testVersion() throws IOException {
+        File executable = folder.newFile("dot");
+        FileUtil.writeFile(executable, "#!/bin/sh");
+        File directory = folder.newFolder("cache");
+
+        ProbeCache cache = new ProbeCache(directory, executable.getPath(), null);
+        assertNull(cache.getVersion());
+        cache.setVersion("dot - graphviz version 2.38.0");
+        assertEquals(
+                "dot - graphviz version 2.38.0",
+                new ProbeCache(directory, executable.getPath(), null).getVersion());
+
+        // Upgraded
+        FileUtil.writeFile(executable, "#!/bin/sh -e");
+        assertNull(new ProbeCache(directory, executable.getPath(), null).getVersion());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * by the @author tags. See the COPYRIGHT.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.apiviz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class RenderCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRestore() throws IOException {
+        RenderCache cache = new RenderCache(folder.newFolder("cache"), 1024 * 1024, DiagramFormat.PNG, "dot 1");
+        File image = file("a.png", "image");
+
+        assertNull(cache.restore("digraph A {}", image));
+        cache.store("digraph A {}", image, "map");
+
+        File restoredImage = new File(folder.getRoot(), "b.png");
+        assertEquals("map", cache.restore("digraph A {}", restoredImage));
+        assertEquals("image", FileUtil.readFile(restoredImage));
+        assertNull(cache.restore("digraph B {}", restoredImage));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testRestoreOtherRenderer() throws IOException {
+        File directory = folder.newFolder("cache");
+        RenderCache cache = new RenderCache(directory, 1024 * 1024, DiagramFormat.SVG, "dot 1");
+        cache.store("digraph A {}", null, "<svg>1</svg>");
+
+        assertNull(new RenderCache(directory, 1024 * 1024, DiagramFormat.SVG, "dot 2").restore("digraph A {}", null));
+        assertEquals("<svg>1</svg>", new RenderCache(directory, 1024 * 1024, DiagramFormat.SVG, "dot 1").restore("digraph A {}", null));
+    }
+
+    @Test
+    public void testRestoreSvg() throws IOException {
+        RenderCache cache = new RenderCache(folder.newFolder("cache"), 1024 * 1024, DiagramFormat.SVG, "dot 1");
+
+        assertNull(cache.restore("digraph A {}", null));
+        cache.store("digraph A {}", null, "<svg></svg>");
+        assertEquals("<svg></svg>", cache.restore("digraph A {}", null));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws IOException {
+        File directory = folder.newFolder("cache");
+        // Each entry takes 10 bytes.
+        RenderCache cache = new RenderCache(directory, 25, DiagramFormat.PNG, "dot 1");
+        File image = file("a.png", "image");
+
+        long now = System.currentTimeMillis();
+        String[] sources = { "digraph A {}", "digraph B {}", "digraph C {}" };
+        for (int i = 0; i < sources.length; i ++) {
+            cache.store(sources[i], image, "map01");
+            new File(directory, cache.getKey(sources[i]) + ".map").setLastModified(now - 60000 * (3 - i));
+        }
+
+        // Touch the oldest entry so that the second one is evicted instead.
+        File restoredImage = new File(folder.getRoot(), "b.png");
+        assertNotNull(cache.restore(sources[0], restoredImage));
+
+        cache.evict();
+
+        assertNotNull(cache.restore(sources[0], restoredImage));
+        assertNull(cache.restore(sources[1], restoredImage));
+        assertNotNull(cache.restore(sources[2], restoredImage));
+        assertEquals(4, directory.list().length);
+    }
+
+    private File file(String name, String content) throws IOException {
+        File f = new File(folder.getRoot(), name);
+        FileUtil.writeFile(f, content);
+        return f;
+    }
+}